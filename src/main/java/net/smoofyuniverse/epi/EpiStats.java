@@ -33,6 +33,8 @@ import net.smoofyuniverse.common.app.Arguments;
 import net.smoofyuniverse.common.download.ConnectionConfiguration;
 import net.smoofyuniverse.epi.api.PlayerCache;
 import net.smoofyuniverse.epi.stats.ObjectList;
+import net.smoofyuniverse.epi.stats.collection.SnapshotRepository;
+import net.smoofyuniverse.epi.stats.collection.SnapshotStore;
 import net.smoofyuniverse.epi.ui.UserInterface;
 
 import java.nio.file.Path;
@@ -57,7 +59,7 @@ public class EpiStats extends Application {
 				initStage(1000, 900, true, "favicon.png");
 
 				Path dir = getWorkingDirectory();
-				setScene(new UserInterface(this, dir.resolve("ui.dat"), new ObjectList(dir.resolve("objects.olist")), new PlayerCache(dir.resolve("cache/")))).show();
+				setScene(new UserInterface(this, dir.resolve("ui.dat"), new ObjectList(dir.resolve("objects.olist")), new PlayerCache(dir.resolve("cache/")), new SnapshotRepository(new SnapshotStore(dir.resolve("snapshots.dsnap"))))).show();
 
 				Scene sc = getStage().get().getScene();
 				sc.setOnKeyPressed((e) -> {
@@ -95,6 +97,8 @@ public class EpiStats extends Application {
 	}
 
 	public static void main(String[] args) {
+		if (System.getProperty("http.maxConnections") == null)
+			System.setProperty("http.maxConnections", "64");
 		new EpiStats(Arguments.parse(args)).launch();
 	}
 }
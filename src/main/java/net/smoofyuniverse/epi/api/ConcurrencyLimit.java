@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.api;
+
+final class ConcurrencyLimit {
+	public static final double LATENCY_TOLERANCE = 2;
+	public static final long LATENCY_SLACK = 50_000_000;
+
+	private int max;
+	private double limit;
+	private int inFlight;
+
+	private double latency = -1, baseline = -1;
+	private long lastDecrease;
+
+	public ConcurrencyLimit(int initial, int max) {
+		if (max < 1 || initial < 1 || initial > max)
+			throw new IllegalArgumentException("limit");
+		this.max = max;
+		this.limit = initial;
+		this.lastDecrease = System.nanoTime();
+	}
+
+	public synchronized void acquire() throws InterruptedException {
+		while (this.inFlight >= (int) this.limit)
+			wait();
+		this.inFlight++;
+	}
+
+	public synchronized void abandon() {
+		this.inFlight--;
+		notifyAll();
+	}
+
+	public synchronized void release(long latency, boolean congested) {
+		this.inFlight--;
+
+		if (latency >= 0) {
+			this.latency = this.latency < 0 ? latency : this.latency * 0.9 + latency * 0.1;
+			this.baseline = this.baseline < 0 ? this.latency : Math.min(this.baseline * 1.001, this.latency);
+		}
+
+		if (congested || this.latency > this.baseline * LATENCY_TOLERANCE + LATENCY_SLACK) {
+			long now = System.nanoTime();
+			if (now - this.lastDecrease > this.latency) {
+				this.limit = Math.max(1, this.limit / 2);
+				this.lastDecrease = now;
+			}
+		} else
+			this.limit = Math.min(this.max, this.limit + 1 / this.limit);
+
+		notifyAll();
+	}
+
+	public synchronized void setMax(int max) {
+		if (max < 1)
+			throw new IllegalArgumentException("max");
+		this.max = max;
+		this.limit = Math.min(this.limit, max);
+		notifyAll();
+	}
+
+	public synchronized int getLimit() {
+		return (int) this.limit;
+	}
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import net.smoofyuniverse.common.download.ConnectionConfiguration;
+import net.smoofyuniverse.common.util.IOUtil;
+import net.smoofyuniverse.epi.EpiStats;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+public final class FetchEngine {
+	public static final int DEFAULT_CONCURRENCY = 16, DEFAULT_TIMEOUT = 15000, DEFAULT_RETRIES = 4;
+	public static final double DEFAULT_RATE = 0;
+	public static final long BASE_BACKOFF = 500, MAX_BACKOFF = 30000;
+
+	private static final AtomicInteger engines = new AtomicInteger();
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrencyLimit limit;
+
+	private volatile ConnectionConfiguration config;
+	private volatile TokenBucket bucket;
+	private volatile int timeout, retries;
+
+	private final Set<Request<?>> delayed = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger requests = new AtomicInteger(), successes = new AtomicInteger(), notModified = new AtomicInteger(), retried = new AtomicInteger();
+	private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+	public FetchEngine(ConnectionConfiguration config) {
+		this(config, DEFAULT_CONCURRENCY, DEFAULT_TIMEOUT);
+	}
+
+	public FetchEngine(ConnectionConfiguration config, int concurrency, int timeout) {
+		this(config, concurrency, timeout, DEFAULT_RATE, DEFAULT_RETRIES);
+	}
+
+	public FetchEngine(ConnectionConfiguration config, int concurrency, int timeout, double rate, int retries) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("concurrency");
+
+		String prefix = "FetchEngine-" + engines.incrementAndGet() + "-";
+		AtomicInteger threads = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread t = new Thread(r, prefix + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, prefix + "retry");
+			t.setDaemon(true);
+			return t;
+		});
+		this.limit = new ConcurrencyLimit(Math.min(4, concurrency), concurrency);
+
+		configure(config, concurrency, timeout, rate, retries);
+	}
+
+	public synchronized void configure(ConnectionConfiguration config, int concurrency, int timeout, double rate, int retries) {
+		if (config == null)
+			throw new IllegalArgumentException("config");
+		if (concurrency < 1)
+			throw new IllegalArgumentException("concurrency");
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout");
+		if (retries < 0)
+			throw new IllegalArgumentException("retries");
+
+		this.config = config;
+		this.timeout = timeout;
+		this.retries = retries;
+
+		TokenBucket bucket = this.bucket;
+		if (rate <= 0)
+			this.bucket = null;
+		else if (bucket == null || bucket.getRate() != rate)
+			this.bucket = new TokenBucket(rate, Math.max(1, rate));
+
+		if (concurrency > this.executor.getMaximumPoolSize()) {
+			this.executor.setMaximumPoolSize(concurrency);
+			this.executor.setCorePoolSize(concurrency);
+		} else {
+			this.executor.setCorePoolSize(concurrency);
+			this.executor.setMaximumPoolSize(concurrency);
+		}
+		this.limit.setMax(concurrency);
+	}
+
+	public CompletableFuture<PlayerInfo> fetchPlayer(UUID id, boolean stats) {
+		return fetchPlayer(id, stats, null);
+	}
+
+	public CompletableFuture<PlayerInfo> fetchPlayer(UUID id, boolean stats, PlayerInfo cached) {
+		if (cached == null || stats && !cached.hasStats())
+			return fetchPlayer(id, stats, null, 0, () -> null);
+		return fetchPlayer(id, stats, cached.etag, cached.lastModified, () -> cached);
+	}
+
+	public CompletableFuture<PlayerInfo> fetchPlayer(UUID id, boolean stats, String etag, long lastModified, Supplier<PlayerInfo> cached) {
+		URL url;
+		try {
+			url = IOUtil.appendSuffix(PlayerInfo.URL_BASE, PlayerInfo.idToString(id) + (stats ? ".json?with=stats" : ".json"));
+		} catch (IOException e) {
+			return failed(e);
+		}
+
+		ResponseReader<PlayerInfo> reader = json -> PlayerInfo.read(json, Instant.now(), stats);
+		return submit(url, reader, etag, lastModified).thenCompose(r -> {
+			if (!r.notModified)
+				return CompletableFuture.completedFuture(r.value.withValidators(r.etag, r.lastModified));
+
+			PlayerInfo p = cached.get();
+			if (p != null && (!stats || p.hasStats()))
+				return CompletableFuture.completedFuture(p.withDate(Instant.now()));
+			return submit(url, reader, null, 0).thenApply(r2 -> r2.value.withValidators(r2.etag, r2.lastModified));
+		});
+	}
+
+	public CompletableFuture<GuildInfo> fetchGuild(String name) {
+		URL url;
+		try {
+			url = IOUtil.appendSuffix(GuildInfo.URL_BASE, URLEncoder.encode(name, "UTF-8") + ".json");
+		} catch (IOException e) {
+			return failed(e);
+		}
+		return fetch(url, GuildInfo::read);
+	}
+
+	public <T> CompletableFuture<T> fetch(URL url, ResponseReader<T> reader) {
+		return submit(url, reader, null, 0).thenApply(r -> r.value);
+	}
+
+	private <T> CompletableFuture<Response<T>> submit(URL url, ResponseReader<T> reader, String etag, long lastModified) {
+		Request<T> request = new Request<>(url, reader, etag, lastModified);
+		this.requests.incrementAndGet();
+		submit(request);
+		return request.future;
+	}
+
+	public <T> T get(URL url, ResponseReader<T> reader) throws IOException {
+		return get(url, reader, null, 0).value;
+	}
+
+	private <T> Response<T> get(URL url, ResponseReader<T> reader, String etag, long lastModified) throws IOException {
+		HttpURLConnection co = this.config.openHttpConnection(url);
+		co.setConnectTimeout(this.timeout);
+		co.setReadTimeout(this.timeout);
+		co.setRequestProperty("Accept-Encoding", "gzip");
+		if (etag != null)
+			co.setRequestProperty("If-None-Match", etag);
+		if (lastModified > 0)
+			co.setIfModifiedSince(lastModified);
+		co.connect();
+
+		int code = co.getResponseCode();
+		if (code == HttpURLConnection.HTTP_NOT_MODIFIED && (etag != null || lastModified > 0)) {
+			drain(co.getInputStream());
+			return new Response<>(null, true, etag, lastModified);
+		}
+		if (code / 100 != 2) {
+			InputStream error = co.getErrorStream();
+			if (error != null)
+				drain(error);
+			throw new ResponseException(code, co.getHeaderFieldLong("Retry-After", -1));
+		}
+
+		InputStream in = co.getInputStream();
+		try {
+			if ("gzip".equalsIgnoreCase(co.getContentEncoding()))
+				in = new GZIPInputStream(in);
+
+			T value;
+			try (JsonParser json = EpiStats.JSON_FACTORY.createParser(in)) {
+				json.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+				value = reader.read(json);
+			}
+			drain(in);
+			return new Response<>(value, false, co.getHeaderField("ETag"), co.getLastModified());
+		} finally {
+			in.close();
+		}
+	}
+
+	public int getConcurrencyLimit() {
+		return this.limit.getLimit();
+	}
+
+	public Report getReport() {
+		return new Report(this.requests.get(), this.successes.get(), this.notModified.get(), this.retried.get(), new ArrayList<>(this.failures));
+	}
+
+	public void cancelAll() {
+		List<Runnable> queued = new ArrayList<>();
+		this.executor.getQueue().drainTo(queued);
+		for (Runnable r : queued)
+			((Request<?>) r).future.cancel(false);
+		for (Request<?> r : this.delayed)
+			r.future.cancel(false);
+	}
+
+	public void shutdown() {
+		for (Runnable r : this.scheduler.shutdownNow())
+			((Future<?>) r).cancel(false);
+		for (Runnable r : this.executor.shutdownNow())
+			((Request<?>) r).future.cancel(false);
+		for (Request<?> r : this.delayed)
+			r.future.cancel(false);
+	}
+
+	private void submit(Request<?> request) {
+		try {
+			this.executor.execute(request);
+		} catch (RejectedExecutionException e) {
+			request.future.completeExceptionally(e);
+		}
+	}
+
+	private void retry(Request<?> request, Throwable error) {
+		long delay = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(request.attempts - 1, 16));
+		delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+		if (error instanceof ResponseException && ((ResponseException) error).retryAfter > 0)
+			delay = Math.max(delay, Math.min(MAX_BACKOFF, ((ResponseException) error).retryAfter * 1000));
+
+		this.retried.incrementAndGet();
+		this.delayed.add(request);
+		try {
+			this.scheduler.schedule(() -> {
+				this.delayed.remove(request);
+				submit(request);
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			this.delayed.remove(request);
+			request.future.completeExceptionally(error);
+		}
+	}
+
+	private static boolean isCongestion(Throwable e) {
+		if (e instanceof ResponseException) {
+			int code = ((ResponseException) e).code;
+			return code == 429 || code == 503;
+		}
+		return e instanceof SocketTimeoutException;
+	}
+
+	private static boolean isTransient(Throwable e) {
+		if (e instanceof ResponseException) {
+			int code = ((ResponseException) e).code;
+			return code == 429 || code / 100 == 5;
+		}
+		return e instanceof IOException && !(e instanceof JsonProcessingException);
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		try {
+			byte[] buffer = new byte[4096];
+			while (in.read(buffer) != -1) ;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static <T> CompletableFuture<T> failed(Throwable e) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(e);
+		return future;
+	}
+
+	private static final class Response<T> {
+		public final T value;
+		public final boolean notModified;
+		public final String etag;
+		public final long lastModified;
+
+		public Response(T value, boolean notModified, String etag, long lastModified) {
+			this.value = value;
+			this.notModified = notModified;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private final class Request<T> implements Runnable {
+		private final CompletableFuture<Response<T>> future = new CompletableFuture<>();
+		private final URL url;
+		private final ResponseReader<T> reader;
+		private final String etag;
+		private final long lastModified;
+
+		public Request(URL url, ResponseReader<T> reader, String etag, long lastModified) {
+			this.url = url;
+			this.reader = reader;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		private int attempts;
+
+		@Override
+		public void run() {
+			if (this.future.isDone())
+				return;
+
+			try {
+				TokenBucket bucket = FetchEngine.this.bucket;
+				if (bucket != null)
+					bucket.acquire();
+				FetchEngine.this.limit.acquire();
+			} catch (InterruptedException e) {
+				this.future.cancel(false);
+				return;
+			}
+
+			if (this.future.isDone()) {
+				FetchEngine.this.limit.abandon();
+				return;
+			}
+
+			this.attempts++;
+			long time = System.nanoTime();
+			Response<T> value;
+			try {
+				value = get(this.url, this.reader, this.etag, this.lastModified);
+			} catch (Throwable e) {
+				FetchEngine.this.limit.release(e instanceof ResponseException ? System.nanoTime() - time : -1, isCongestion(e));
+
+				if (isTransient(e) && this.attempts <= FetchEngine.this.retries)
+					retry(this, e);
+				else {
+					FetchEngine.this.failures.add(new Failure(this.url, e, this.attempts));
+					this.future.completeExceptionally(e);
+				}
+				return;
+			}
+
+			FetchEngine.this.limit.release(System.nanoTime() - time, false);
+			FetchEngine.this.successes.incrementAndGet();
+			if (value.notModified)
+				FetchEngine.this.notModified.incrementAndGet();
+			this.future.complete(value);
+		}
+	}
+
+	public static final class ResponseException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public final int code;
+		public final long retryAfter;
+
+		public ResponseException(int code, long retryAfter) {
+			super("Invalid response code: " + code);
+			this.code = code;
+			this.retryAfter = retryAfter;
+		}
+	}
+
+	public static final class Failure {
+		public final URL url;
+		public final Throwable error;
+		public final int attempts;
+
+		public Failure(URL url, Throwable error, int attempts) {
+			this.url = url;
+			this.error = error;
+			this.attempts = attempts;
+		}
+
+		@Override
+		public String toString() {
+			return this.url + " (" + this.attempts + (this.attempts > 1 ? " attempts" : " attempt") + "): " + this.error;
+		}
+	}
+
+	public static final class Report {
+		public final int requests, successes, notModified, retries;
+		public final List<Failure> failures;
+
+		public Report(int requests, int successes, int notModified, int retries, List<Failure> failures) {
+			this.requests = requests;
+			this.successes = successes;
+			this.notModified = notModified;
+			this.retries = retries;
+			this.failures = Collections.unmodifiableList(failures);
+		}
+
+		public Report since(Report start) {
+			return new Report(this.requests - start.requests, this.successes - start.successes, this.notModified - start.notModified,
+					this.retries - start.retries, new ArrayList<>(this.failures.subList(start.failures.size(), this.failures.size())));
+		}
+
+		@Override
+		public String toString() {
+			return this.requests + " requests, " + this.successes + " successes (" + this.notModified + " not modified), " + this.retries + " retries, " + this.failures.size() + " failures";
+		}
+	}
+
+	public interface ResponseReader<T> {
+		T read(JsonParser json) throws IOException;
+	}
+}
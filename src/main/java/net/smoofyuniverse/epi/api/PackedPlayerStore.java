@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.api;
+
+import net.smoofyuniverse.common.app.App;
+import net.smoofyuniverse.epi.util.UuidIndex;
+import net.smoofyuniverse.logger.core.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+final class PackedPlayerStore {
+	public static final int INDEX_VERSION = 2, MINIMUM_INDEX_VERSION = 1;
+	public static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+	public static final long COMPACTION_THRESHOLD = 8 * 1024 * 1024;
+
+	private static final Logger logger = App.getLogger("PackedPlayerStore");
+
+	public final Path segmentFile, indexFile;
+
+	private FileChannel channel;
+	private long end, garbage;
+	private boolean dirty, compacting;
+
+	private UuidIndex index;
+	private long[] ids, offsets, dates, lastModified;
+	private int[] lengths, checksums;
+	private String[] etags;
+	private int count;
+
+	public PackedPlayerStore(Path directory) {
+		this.segmentFile = directory.resolve("players.seg");
+		this.indexFile = directory.resolve("players.idx");
+	}
+
+	public synchronized boolean isOpen() {
+		return this.channel != null;
+	}
+
+	public synchronized void open() throws IOException {
+		if (this.channel != null)
+			return;
+
+		this.channel = FileChannel.open(this.segmentFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		reset(256);
+
+		long scanFrom = 0;
+		if (Files.exists(this.indexFile)) {
+			try {
+				scanFrom = readIndex();
+			} catch (IOException e) {
+				logger.warn("Failed to read index file, rebuilding it from the segment", e);
+				reset(256);
+				scanFrom = 0;
+			}
+		}
+
+		scan(scanFrom);
+	}
+
+	private void reset(int capacity) {
+		this.index = new UuidIndex(capacity);
+		this.ids = new long[capacity * 2];
+		this.offsets = new long[capacity];
+		this.dates = new long[capacity];
+		this.lengths = new int[capacity];
+		this.checksums = new int[capacity];
+		this.etags = new String[capacity];
+		this.lastModified = new long[capacity];
+		this.count = 0;
+		this.end = 0;
+		this.garbage = 0;
+	}
+
+	private long readIndex() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.indexFile)))) {
+			int version = in.readInt();
+			if (version > INDEX_VERSION || version < MINIMUM_INDEX_VERSION)
+				throw new IOException("Invalid format version: " + version);
+
+			long segmentLength = in.readLong();
+			if (segmentLength > this.channel.size())
+				throw new IOException("Index is ahead of the segment");
+
+			int count = in.readInt();
+			reset(Math.max(count, 256));
+			for (int i = 0; i < count; i++) {
+				long most = in.readLong(), least = in.readLong(), offset = in.readLong();
+				int length = in.readInt(), checksum = in.readInt();
+				long date = in.readLong();
+				String etag = null;
+				long lastModified = 0;
+				if (version >= 2) {
+					etag = in.readUTF();
+					if (etag.isEmpty())
+						etag = null;
+					lastModified = in.readLong();
+				}
+				put(most, least, offset, length, checksum, date, etag, lastModified);
+			}
+			this.garbage = in.readLong();
+			this.end = segmentLength;
+			return segmentLength;
+		}
+	}
+
+	private void scan(long position) throws IOException {
+		long size = this.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, position);
+			header.flip();
+
+			int length = header.getInt(), checksum = header.getInt();
+			long most = header.getLong(), least = header.getLong(), date = header.getLong();
+			if (length < 0 || position + HEADER_SIZE + length > size)
+				break;
+
+			put(most, least, position, length, checksum, date, null, 0);
+			position += HEADER_SIZE + length;
+		}
+
+		if (position != size) {
+			logger.warn("Truncating " + (size - position) + " bytes of incomplete records");
+			this.channel.truncate(position);
+		}
+		if (position != this.end)
+			this.dirty = true;
+		this.end = position;
+	}
+
+	private void put(long most, long least, long offset, int length, int checksum, long date, String etag, long lastModified) {
+		int slot = this.index.get(most, least);
+		if (slot == -1) {
+			slot = this.count++;
+			if (slot == this.offsets.length) {
+				int capacity = slot * 2;
+				this.ids = Arrays.copyOf(this.ids, capacity * 2);
+				this.offsets = Arrays.copyOf(this.offsets, capacity);
+				this.dates = Arrays.copyOf(this.dates, capacity);
+				this.lengths = Arrays.copyOf(this.lengths, capacity);
+				this.checksums = Arrays.copyOf(this.checksums, capacity);
+				this.etags = Arrays.copyOf(this.etags, capacity);
+				this.lastModified = Arrays.copyOf(this.lastModified, capacity);
+			}
+			this.index.put(most, least, slot);
+			this.ids[slot * 2] = most;
+			this.ids[slot * 2 + 1] = least;
+		} else
+			this.garbage += HEADER_SIZE + this.lengths[slot];
+
+		this.offsets[slot] = offset;
+		this.lengths[slot] = length;
+		this.checksums[slot] = checksum;
+		this.dates[slot] = date;
+		this.etags[slot] = etag;
+		this.lastModified[slot] = lastModified;
+	}
+
+	public synchronized List<UUID> list() {
+		List<UUID> list = new ArrayList<>(this.count);
+		for (int i = 0; i < this.count; i++)
+			list.add(new UUID(this.ids[i * 2], this.ids[i * 2 + 1]));
+		return list;
+	}
+
+	public synchronized boolean contains(UUID id) {
+		return this.index.contains(id);
+	}
+
+	public synchronized long getDate(UUID id) {
+		int slot = this.index.get(id);
+		return slot == -1 ? Long.MIN_VALUE : this.dates[slot];
+	}
+
+	public synchronized void getDates(List<UUID> ids, long[] dates) {
+		for (int i = 0; i < dates.length; i++) {
+			int slot = this.index.get(ids.get(i));
+			dates[i] = slot == -1 ? Long.MIN_VALUE : this.dates[slot];
+		}
+	}
+
+	public synchronized void getValidators(List<UUID> ids, String[] etags, long[] lastModified) {
+		for (int i = 0; i < etags.length; i++) {
+			int slot = this.index.get(ids.get(i));
+			etags[i] = slot == -1 ? null : this.etags[slot];
+			lastModified[i] = slot == -1 ? 0 : this.lastModified[slot];
+		}
+	}
+
+	public synchronized boolean touch(UUID id, long date) {
+		int slot = this.index.get(id);
+		if (slot == -1 || this.dates[slot] >= date)
+			return false;
+		this.dates[slot] = date;
+		this.dirty = true;
+		return true;
+	}
+
+	public synchronized int size() {
+		return this.count;
+	}
+
+	public Optional<byte[]> read(UUID id) throws IOException {
+		byte[] payload;
+		int checksum;
+		synchronized (this) {
+			int slot = this.index.get(id);
+			if (slot == -1)
+				return Optional.empty();
+
+			ByteBuffer buffer = ByteBuffer.allocate(this.lengths[slot]);
+			readFully(buffer, this.offsets[slot] + HEADER_SIZE);
+			payload = buffer.array();
+			checksum = this.checksums[slot];
+		}
+
+		if (checksum(payload, 0, payload.length) != checksum)
+			throw new IOException("Checksum mismatch for " + id);
+		return Optional.of(payload);
+	}
+
+	public void write(UUID id, long date, String etag, long lastModified, byte[] payload) throws IOException {
+		write(Collections.singletonList(new Record(id, date, etag, lastModified, payload)));
+	}
+
+	public void write(List<Record> records) throws IOException {
+		int total = 0;
+		for (Record r : records)
+			total += HEADER_SIZE + r.payload.length;
+
+		ByteBuffer buffer = ByteBuffer.allocate(total);
+		int[] checksums = new int[records.size()];
+		for (int i = 0; i < checksums.length; i++) {
+			Record r = records.get(i);
+			checksums[i] = checksum(r.payload, 0, r.payload.length);
+			buffer.putInt(r.payload.length);
+			buffer.putInt(checksums[i]);
+			buffer.putLong(r.id.getMostSignificantBits());
+			buffer.putLong(r.id.getLeastSignificantBits());
+			buffer.putLong(r.date);
+			buffer.put(r.payload);
+		}
+		buffer.flip();
+
+		synchronized (this) {
+			long position = this.end;
+			writeFully(buffer, position);
+			for (int i = 0; i < checksums.length; i++) {
+				Record r = records.get(i);
+				put(r.id.getMostSignificantBits(), r.id.getLeastSignificantBits(), position, r.payload.length, checksums[i], r.date, r.etag, r.lastModified);
+				position += HEADER_SIZE + r.payload.length;
+			}
+			this.end = position;
+			this.dirty = true;
+
+			if (!this.compacting && this.garbage > COMPACTION_THRESHOLD && this.garbage > this.end / 2) {
+				this.compacting = true;
+				Thread t = new Thread(this::compact, "PlayerCache compaction");
+				t.setDaemon(true);
+				t.start();
+			}
+		}
+	}
+
+	public synchronized void flush() throws IOException {
+		if (!this.dirty || this.channel == null)
+			return;
+
+		this.channel.force(false);
+		Path tmp = this.indexFile.resolveSibling(this.indexFile.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(INDEX_VERSION);
+			out.writeLong(this.end);
+			out.writeInt(this.count);
+			for (int i = 0; i < this.count; i++) {
+				out.writeLong(this.ids[i * 2]);
+				out.writeLong(this.ids[i * 2 + 1]);
+				out.writeLong(this.offsets[i]);
+				out.writeInt(this.lengths[i]);
+				out.writeInt(this.checksums[i]);
+				out.writeLong(this.dates[i]);
+				out.writeUTF(this.etags[i] == null ? "" : this.etags[i]);
+				out.writeLong(this.lastModified[i]);
+			}
+			out.writeLong(this.garbage);
+		}
+		Files.move(tmp, this.indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.dirty = false;
+	}
+
+	private void compact() {
+		Path tmp = this.segmentFile.resolveSibling(this.segmentFile.getFileName() + ".tmp");
+		try {
+			long[] offsets;
+			int[] lengths;
+			int count;
+			long copied;
+			synchronized (this) {
+				count = this.count;
+				offsets = Arrays.copyOf(this.offsets, count);
+				lengths = Arrays.copyOf(this.lengths, count);
+				copied = this.end;
+			}
+
+			long[] newOffsets = new long[count];
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				long position = 0;
+				for (int i = 0; i < count; i++) {
+					int length = HEADER_SIZE + lengths[i];
+					ByteBuffer buffer = ByteBuffer.allocate(length);
+					readFully(buffer, offsets[i]);
+					buffer.flip();
+					while (buffer.hasRemaining())
+						position += out.write(buffer, position);
+					newOffsets[i] = position - length;
+				}
+
+				synchronized (this) {
+					long[] moved = new long[this.count];
+					for (int i = 0; i < this.count; i++) {
+						if (i < count && this.offsets[i] == offsets[i]) {
+							moved[i] = newOffsets[i];
+							continue;
+						}
+
+						int length = HEADER_SIZE + this.lengths[i];
+						ByteBuffer buffer = ByteBuffer.allocate(length);
+						readFully(buffer, this.offsets[i]);
+						buffer.flip();
+						while (buffer.hasRemaining())
+							position += out.write(buffer, position);
+						moved[i] = position - length;
+					}
+					out.force(false);
+
+					this.channel.close();
+					try {
+						Files.move(tmp, this.segmentFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					} catch (IOException e) {
+						reopen();
+						throw e;
+					}
+					System.arraycopy(moved, 0, this.offsets, 0, moved.length);
+					this.end = position;
+					this.garbage = 0;
+					this.dirty = true;
+					try {
+						reopen();
+					} catch (IOException e) {
+						Files.deleteIfExists(this.indexFile);
+						throw e;
+					}
+
+					logger.info("Compacted player cache from " + copied + " to " + position + " bytes.");
+					flush();
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Failed to compact player cache", e);
+			try {
+				Files.deleteIfExists(tmp);
+			} catch (IOException ignored) {}
+		} finally {
+			synchronized (this) {
+				this.compacting = false;
+			}
+		}
+	}
+
+	private void reopen() throws IOException {
+		try {
+			this.channel = FileChannel.open(this.segmentFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			this.channel = null;
+			throw e;
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = this.channel.read(buffer, position);
+			if (n < 0)
+				throw new EOFException();
+			position += n;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += this.channel.write(buffer, position);
+	}
+
+	private static int checksum(byte[] bytes, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int) crc.getValue();
+	}
+
+	public static final class Record {
+		public final UUID id;
+		public final long date;
+		public final String etag;
+		public final long lastModified;
+		public final byte[] payload;
+
+		public Record(UUID id, long date, String etag, long lastModified, byte[] payload) {
+			this.id = id;
+			this.date = date;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.payload = payload;
+		}
+	}
+}
@@ -25,69 +25,242 @@ package net.smoofyuniverse.epi.api;
 import net.smoofyuniverse.common.app.App;
 import net.smoofyuniverse.logger.core.Logger;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 public class PlayerCache {
-	public static final int CURRENT_VERSION = 2, MINIMUM_VERSION = 1;
+	public static final int CURRENT_VERSION = 4, MINIMUM_VERSION = 1;
+	public static final long DEFAULT_MEMORY_WEIGHT = 4_000_000;
+	public static final int WRITE_BATCH_SIZE = 512, WRITE_QUEUE_CAPACITY = 8192;
 
 	private static final Logger logger = App.getLogger("PlayerCache");
 	
 	public final Path directory;
-	
+
+	private final PackedPlayerStore store;
+	private final MemoryTier memory;
+	private final LocalSchema schema;
+
+	private final boolean writeBehind;
+	private final BlockingQueue<PlayerInfo> queue = new LinkedBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+	private final Map<UUID, PlayerInfo> pending = new ConcurrentHashMap<>();
+	private Thread writer;
+	private int unwritten;
+
 	public PlayerCache(Path dir) {
+		this(dir, DEFAULT_MEMORY_WEIGHT, true, true);
+	}
+
+	public PlayerCache(Path dir, long maxWeight, boolean weighByStats, boolean writeBehind) {
 		this.directory = dir;
-		
+		this.store = new PackedPlayerStore(dir);
+		this.memory = new MemoryTier(maxWeight, weighByStats);
+		this.schema = new LocalSchema(dir.resolve("schema.dat"));
+		this.writeBehind = writeBehind;
+
 		try {
 			Files.createDirectories(dir);
 		} catch (IOException ignored) {}
 	}
-	
-	public List<UUID> list() {
-		List<UUID> list = new ArrayList<>();
 
-		try (DirectoryStream<Path> st = Files.newDirectoryStream(this.directory)) {
-			for (Path file : st) {
-				String fn = file.getFileName().toString();
-				if (fn.endsWith(".pdat")) {
-					try {
-						list.add(UUID.fromString(fn.substring(0, fn.length() -5)));
-					} catch (IllegalArgumentException ignored) {}
-				}
+	private boolean open() {
+		if (this.store.isOpen())
+			return true;
+
+		synchronized (this) {
+			if (this.store.isOpen())
+				return true;
+
+			try {
+				this.schema.load();
+				this.store.open();
+				migrate();
+				return true;
+			} catch (IOException e) {
+				logger.error("Failed to open player cache", e);
+				return false;
 			}
-		} catch (Exception e) {
-			logger.warn("Failed to list files", e);
 		}
-		
-		return list;
 	}
-	
+
+	private void migrate() throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> st = Files.newDirectoryStream(this.directory, "*.pdat")) {
+			for (Path file : st)
+				files.add(file);
+		}
+		if (files.isEmpty())
+			return;
+
+		logger.info("Migrating " + files.size() + " player files to the packed store ..");
+		List<PackedPlayerStore.Record> records = new ArrayList<>();
+		List<Path> migrated = new ArrayList<>();
+		for (Path file : files) {
+			try {
+				PlayerInfo p = read(file);
+				records.add(new PackedPlayerStore.Record(p.id, p.date.toEpochMilli(), p.etag, p.lastModified, toBytes(p)));
+				migrated.add(file);
+			} catch (IOException e) {
+				logger.warn("Failed to migrate file " + file.getFileName(), e);
+			}
+
+			if (records.size() == 512) {
+				this.store.write(records);
+				records.clear();
+			}
+		}
+		if (!records.isEmpty())
+			this.store.write(records);
+		this.store.flush();
+
+		for (Path file : migrated) {
+			try {
+				Files.delete(file);
+			} catch (IOException e) {
+				logger.warn("Failed to delete migrated file " + file.getFileName(), e);
+			}
+		}
+		logger.info("Migrated " + migrated.size() + " player files.");
+	}
+
+	public List<UUID> list() {
+		if (!open())
+			return new ArrayList<>();
+		return this.store.list();
+	}
+
 	public boolean contains(UUID id) {
-		return Files.exists(this.directory.resolve(id + ".pdat"));
+		return this.memory.contains(id) || this.pending.containsKey(id) || (open() && this.store.contains(id));
 	}
-	
+
 	public Optional<PlayerInfo> read(UUID id) {
-		Path file = this.directory.resolve(id + ".pdat");
-		if (!Files.exists(file))
+		PlayerInfo p = this.memory.get(id);
+		if (p == null)
+			p = this.pending.get(id);
+		if (p != null)
+			return Optional.of(p);
+
+		if (!open())
 			return Optional.empty();
-		
+
 		try {
-			return Optional.of(read(file));
+			Optional<byte[]> bytes = this.store.read(id);
+			if (!bytes.isPresent())
+				return Optional.empty();
+			p = read(new DataInputStream(new ByteArrayInputStream(bytes.get())));
+			long date = this.store.getDate(id);
+			if (date > p.date.toEpochMilli())
+				p = p.withDate(Instant.ofEpochMilli(date));
+			this.memory.put(p);
+			return Optional.of(p);
 		} catch (IOException e) {
-			logger.warn("Failed to read file " + file.getFileName(), e);
+			logger.warn("Failed to read player " + id, e);
 			return Optional.empty();
 		}
 	}
-	
+
+	public Optional<Instant> getDate(UUID id) {
+		PlayerInfo p = this.memory.peek(id);
+		if (p == null)
+			p = this.pending.get(id);
+		if (p != null)
+			return Optional.of(p.date);
+
+		if (!open())
+			return Optional.empty();
+		long date = this.store.getDate(id);
+		return date == Long.MIN_VALUE ? Optional.empty() : Optional.of(Instant.ofEpochMilli(date));
+	}
+
+	public FetchPlan plan(Collection<UUID> ids, Instant minDate) {
+		List<UUID> list = new ArrayList<>(ids);
+		long[] dates = new long[list.size()];
+		if (open())
+			this.store.getDates(list, dates);
+		else
+			Arrays.fill(dates, Long.MIN_VALUE);
+
+		long min = minDate.toEpochMilli();
+		List<UUID> fresh = new ArrayList<>(), stale = new ArrayList<>();
+		for (int i = 0; i < dates.length; i++) {
+			UUID id = list.get(i);
+			PlayerInfo p = this.memory.peek(id);
+			if (p == null)
+				p = this.pending.get(id);
+			long date = p == null ? dates[i] : p.date.toEpochMilli();
+
+			(date != Long.MIN_VALUE && date >= min ? fresh : stale).add(id);
+		}
+
+		String[] etags = new String[stale.size()];
+		long[] lastModified = new long[stale.size()];
+		if (open())
+			this.store.getValidators(stale, etags, lastModified);
+		for (int i = 0; i < etags.length; i++) {
+			UUID id = stale.get(i);
+			PlayerInfo p = this.memory.peek(id);
+			if (p == null)
+				p = this.pending.get(id);
+			if (p != null) {
+				etags[i] = p.etag;
+				lastModified[i] = p.lastModified;
+			}
+		}
+		return new FetchPlan(fresh, stale, etags, lastModified);
+	}
+
+	public long getHits() {
+		return this.memory.hits.get();
+	}
+
+	public long getMisses() {
+		return this.memory.misses.get();
+	}
+
+	public long getEvictions() {
+		return this.memory.evictions.get();
+	}
+
+	public void clearMemory() {
+		this.memory.clear();
+	}
+
+	public void flush() {
+		synchronized (this.queue) {
+			while (this.unwritten != 0) {
+				if (!this.writer.isAlive()) {
+					logger.error("Player cache writer died with " + this.unwritten + " unsaved players");
+					break;
+				}
+				try {
+					this.queue.wait(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+
+		try {
+			this.schema.flush();
+			this.store.flush();
+		} catch (IOException e) {
+			logger.warn("Failed to flush player cache", e);
+		}
+	}
+
 	public PlayerInfo read(Path file) throws IOException {
 		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
 			return read(in);
@@ -99,7 +272,7 @@ public class PlayerCache {
 		if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
 			throw new IOException("Invalid format version: " + version);
 
-		if (version >= 2)
+		if (version == 2)
 			in = new DataInputStream(new GZIPInputStream(in));
 
 		UUID id = new UUID(in.readLong(), in.readLong());
@@ -109,29 +282,159 @@ public class PlayerCache {
 			guild = null;
 		Instant date = Instant.ofEpochMilli(in.readLong());
 
-		Map<String, Map<String, Double>> stats = new HashMap<>();
-		int maps = in.readInt();
-		for (int i = 0; i < maps; i++) {
-			Map<String, Double> map = new HashMap<>();
-			stats.put(in.readUTF(), map);
-			int count = in.readInt();
-			for (int y = 0; y < count; y++)
-				map.put(in.readUTF(), in.readDouble());
+		int[] keys;
+		double[] values;
+		String etag = null;
+		long lastModified = 0;
+		if (version >= 3) {
+			int count = readVarInt(in);
+			keys = new int[count];
+			values = new double[count];
+
+			int local = -1;
+			for (int i = 0; i < count; i++) {
+				int tag = readVarInt(in);
+				local += tag >>> 1;
+				keys[i] = this.schema.toShared(local);
+				if ((tag & 1) == 0) {
+					long l = readVarLong(in);
+					values[i] = (l >>> 1) ^ -(l & 1);
+				} else
+					values[i] = in.readDouble();
+			}
+
+			if (version >= 4) {
+				etag = in.readUTF();
+				if (etag.isEmpty())
+					etag = null;
+				lastModified = in.readLong();
+			}
+		} else {
+			keys = new int[64];
+			values = new double[64];
+			int count = 0;
+
+			int maps = in.readInt();
+			for (int i = 0; i < maps; i++) {
+				String section = in.readUTF();
+				int stats = in.readInt();
+				for (int y = 0; y < stats; y++) {
+					if (count == keys.length) {
+						keys = Arrays.copyOf(keys, count * 2);
+						values = Arrays.copyOf(values, count * 2);
+					}
+					keys[count] = StatSchema.SHARED.id(section, in.readUTF());
+					values[count] = in.readDouble();
+					count++;
+				}
+			}
+
+			keys = Arrays.copyOf(keys, count);
+			values = Arrays.copyOf(values, count);
 		}
 
-		return new PlayerInfo(Collections.unmodifiableMap(stats), id, name, guild, date);
+		return new PlayerInfo(keys, values, id, name, guild, date, etag, lastModified);
 	}
 	
 	public void save(PlayerInfo p) {
-		Path file = this.directory.resolve(p.id + ".pdat");
-		
+		this.memory.put(p);
+		if (!open())
+			return;
+
+		if (this.writeBehind) {
+			enqueue(p);
+			return;
+		}
+
 		try {
-			save(p, file);
+			this.store.write(p.id, p.date.toEpochMilli(), p.etag, p.lastModified, toBytes(p));
 		} catch (IOException e) {
-			logger.warn("Failed to save file " + file.getFileName(), e);
+			logger.warn("Failed to save player " + p.id, e);
 		}
 	}
-	
+
+	public void touch(PlayerInfo p) {
+		if (this.pending.containsKey(p.id)) {
+			save(p);
+			return;
+		}
+
+		this.memory.put(p);
+		if (open() && !this.store.touch(p.id, p.date.toEpochMilli()) && !this.store.contains(p.id))
+			save(p);
+	}
+
+	private void enqueue(PlayerInfo p) {
+		synchronized (this.queue) {
+			if (this.writer == null) {
+				this.writer = new Thread(this::writeLoop, "PlayerCache writer");
+				this.writer.setDaemon(true);
+				this.writer.start();
+			}
+			this.unwritten++;
+		}
+
+		this.pending.put(p.id, p);
+		try {
+			this.queue.put(p);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.pending.remove(p.id, p);
+			written(1);
+			logger.warn("Interrupted while saving player " + p.id);
+		}
+	}
+
+	private void writeLoop() {
+		List<PlayerInfo> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+		List<PackedPlayerStore.Record> records = new ArrayList<>(WRITE_BATCH_SIZE);
+		while (true) {
+			try {
+				batch.add(this.queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			this.queue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+
+			try {
+				for (PlayerInfo p : batch) {
+					try {
+						records.add(new PackedPlayerStore.Record(p.id, p.date.toEpochMilli(), p.etag, p.lastModified, toBytes(p)));
+					} catch (IOException e) {
+						logger.warn("Failed to serialize player " + p.id, e);
+					}
+				}
+
+				this.store.write(records);
+			} catch (Throwable e) {
+				logger.warn("Failed to save " + records.size() + " players", e);
+			} finally {
+				for (PlayerInfo p : batch)
+					this.pending.remove(p.id, p);
+				written(batch.size());
+
+				batch.clear();
+				records.clear();
+			}
+		}
+	}
+
+	private void written(int count) {
+		synchronized (this.queue) {
+			this.unwritten -= count;
+			if (this.unwritten == 0)
+				this.queue.notifyAll();
+		}
+	}
+
+	private byte[] toBytes(PlayerInfo p) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			save(p, out);
+		}
+		return bytes.toByteArray();
+	}
+
 	public void save(PlayerInfo p, Path file) throws IOException {
 		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
 			save(p, out);
@@ -139,28 +442,250 @@ public class PlayerCache {
 	}
 	
 	public void save(PlayerInfo p, DataOutputStream out) throws IOException {
+		if (!p.hasStats())
+			throw new IllegalArgumentException("stats");
+
 		out.writeInt(CURRENT_VERSION);
 
-		GZIPOutputStream zip = new GZIPOutputStream(out);
-		out = new DataOutputStream(zip);
-		
 		out.writeLong(p.id.getMostSignificantBits());
 		out.writeLong(p.id.getLeastSignificantBits());
 		out.writeUTF(p.name);
 		out.writeUTF(p.guild == null ? "" : p.guild);
 		out.writeLong(p.date.toEpochMilli());
 
-		out.writeInt(p.stats.size());
-		for (Entry<String, Map<String, Double>> e : p.stats.entrySet()) {
-			out.writeUTF(e.getKey());
-			Map<String, Double> map = e.getValue();
-			out.writeInt(map.size());
-			for (Entry<String, Double> stat : map.entrySet()) {
-				out.writeUTF(stat.getKey());
-				out.writeDouble(stat.getValue());
+		int count = p.getStatCount();
+		int[] keys = new int[count];
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = this.schema.toLocal(p.getStatKey(i));
+			values[i] = p.getStatValue(i);
+		}
+		StatSchema.sort(keys, values, count);
+
+		writeVarInt(out, count);
+		int local = -1;
+		for (int i = 0; i < count; i++) {
+			int delta = keys[i] - local;
+			local = keys[i];
+
+			double v = values[i];
+			long l = (long) v;
+			if (l == v && (l != 0 || Double.doubleToRawLongBits(v) == 0)) {
+				writeVarInt(out, delta << 1);
+				writeVarLong(out, (l << 1) ^ (l >> 63));
+			} else {
+				writeVarInt(out, delta << 1 | 1);
+				out.writeDouble(v);
 			}
 		}
 
-		zip.finish();
+		out.writeUTF(p.etag == null ? "" : p.etag);
+		out.writeLong(p.lastModified);
+	}
+
+	private static void writeVarInt(DataOutput out, int v) throws IOException {
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	private static void writeVarLong(DataOutput out, long v) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	private static int readVarInt(DataInput in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static long readVarLong(DataInput in) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IOException("Malformed varlong");
+	}
+
+	public static final class FetchPlan {
+		public final List<UUID> fresh, stale;
+		private final String[] etags;
+		private final long[] lastModified;
+
+		public FetchPlan(List<UUID> fresh, List<UUID> stale, String[] etags, long[] lastModified) {
+			if (etags.length != stale.size() || lastModified.length != stale.size())
+				throw new IllegalArgumentException("validators");
+			this.fresh = Collections.unmodifiableList(fresh);
+			this.stale = Collections.unmodifiableList(stale);
+			this.etags = etags;
+			this.lastModified = lastModified;
+		}
+
+		public String getETag(int index) {
+			return this.etags[index];
+		}
+
+		public long getLastModified(int index) {
+			return this.lastModified[index];
+		}
+	}
+
+	private static final class LocalSchema {
+		private final Path file;
+		private int[] toShared = new int[256], toLocal = new int[256];
+		private int size;
+		private FileChannel channel;
+
+		public LocalSchema(Path file) {
+			this.file = file;
+			Arrays.fill(this.toLocal, -1);
+		}
+
+		public synchronized void load() throws IOException {
+			if (this.channel != null)
+				return;
+
+			long valid = 0;
+			if (Files.exists(this.file)) {
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+					long length = Files.size(this.file);
+					while (valid < length) {
+						String section = in.readUTF(), stat = in.readUTF();
+						register(StatSchema.SHARED.id(section, stat), this.size);
+						valid += 4 + utfLength(section) + utfLength(stat);
+					}
+				} catch (EOFException | UTFDataFormatException e) {
+					logger.warn("Truncating damaged stat schema at " + valid);
+				}
+			}
+
+			this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			this.channel.truncate(valid);
+			this.channel.position(valid);
+		}
+
+		public synchronized int toShared(int local) throws IOException {
+			if (local < 0 || local >= this.size)
+				throw new IOException("Unknown stat id: " + local);
+			return this.toShared[local];
+		}
+
+		public synchronized int toLocal(int shared) throws IOException {
+			if (shared < this.toLocal.length && this.toLocal[shared] != -1)
+				return this.toLocal[shared];
+			if (this.channel == null)
+				throw new IOException("Schema not loaded");
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeUTF(StatSchema.SHARED.getSection(shared));
+				out.writeUTF(StatSchema.SHARED.getStat(shared));
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+			while (buffer.hasRemaining())
+				this.channel.write(buffer);
+
+			int local = this.size;
+			register(shared, local);
+			return local;
+		}
+
+		public synchronized void flush() throws IOException {
+			if (this.channel != null)
+				this.channel.force(false);
+		}
+
+		private void register(int shared, int local) {
+			if (local == this.toShared.length)
+				this.toShared = Arrays.copyOf(this.toShared, local * 2);
+			this.toShared[local] = shared;
+
+			if (shared >= this.toLocal.length) {
+				int length = this.toLocal.length;
+				this.toLocal = Arrays.copyOf(this.toLocal, Math.max(length * 2, shared + 1));
+				Arrays.fill(this.toLocal, length, this.toLocal.length, -1);
+			}
+			this.toLocal[shared] = local;
+			this.size++;
+		}
+
+		private static int utfLength(String s) {
+			int length = 0;
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+			}
+			return length;
+		}
+	}
+
+	private static final class MemoryTier {
+		private final LinkedHashMap<UUID, PlayerInfo> map = new LinkedHashMap<>(256, 0.75f, true);
+		private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), evictions = new AtomicLong();
+		private final long maxWeight;
+		private final boolean weighByStats;
+		private long weight;
+
+		public MemoryTier(long maxWeight, boolean weighByStats) {
+			if (maxWeight < 0)
+				throw new IllegalArgumentException("maxWeight");
+			this.maxWeight = maxWeight;
+			this.weighByStats = weighByStats;
+		}
+
+		public synchronized boolean contains(UUID id) {
+			return this.map.containsKey(id);
+		}
+
+		public synchronized PlayerInfo peek(UUID id) {
+			return this.map.get(id);
+		}
+
+		public synchronized PlayerInfo get(UUID id) {
+			PlayerInfo p = this.map.get(id);
+			(p == null ? this.misses : this.hits).incrementAndGet();
+			return p;
+		}
+
+		public synchronized void put(PlayerInfo p) {
+			long w = weight(p);
+			if (w > this.maxWeight)
+				return;
+
+			PlayerInfo old = this.map.put(p.id, p);
+			if (old != null)
+				this.weight -= weight(old);
+			this.weight += w;
+
+			Iterator<PlayerInfo> it = this.map.values().iterator();
+			while (this.weight > this.maxWeight && it.hasNext()) {
+				this.weight -= weight(it.next());
+				it.remove();
+				this.evictions.incrementAndGet();
+			}
+		}
+
+		public synchronized void clear() {
+			this.map.clear();
+			this.weight = 0;
+		}
+
+		private long weight(PlayerInfo p) {
+			return this.weighByStats ? 1 + p.getStatCount() : 1;
+		}
 	}
 }
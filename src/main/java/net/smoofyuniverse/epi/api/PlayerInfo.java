@@ -29,6 +29,7 @@ import net.smoofyuniverse.common.app.App;
 import net.smoofyuniverse.common.download.ConnectionConfiguration;
 import net.smoofyuniverse.common.util.IOUtil;
 import net.smoofyuniverse.epi.EpiStats;
+import net.smoofyuniverse.epi.util.UuidCodec;
 import net.smoofyuniverse.logger.core.Logger;
 
 import java.io.IOException;
@@ -43,22 +44,83 @@ public class PlayerInfo {
 
 	public static final URL URL_BASE;
 	private static final Logger logger = App.getLogger("PlayerInfo");
+	private static final ThreadLocal<StatBuffer> buffers = ThreadLocal.withInitial(StatBuffer::new);
 
-	public final Map<String, Map<String, Double>> stats;
 	public final UUID id;
 	public final String name, guild;
 	public final Instant date;
+	public final String etag;
+	public final long lastModified;
+
+	private final int[] keys;
+	private final double[] values;
 
 	public PlayerInfo(String name, UUID id, Instant date) {
-		this(null, id, name, null, date);
+		this(null, null, id, name, null, date);
+	}
+
+	public PlayerInfo(int[] keys, double[] values, UUID id, String name, String guild, Instant date) {
+		this(keys, values, id, name, guild, date, null, 0);
 	}
 
-	public PlayerInfo(Map<String, Map<String, Double>> stats, UUID id, String name, String guild, Instant date) {
-		this.stats = stats;
+	public PlayerInfo(int[] keys, double[] values, UUID id, String name, String guild, Instant date, String etag, long lastModified) {
+		if ((keys == null) != (values == null) || keys != null && keys.length != values.length)
+			throw new IllegalArgumentException("keys and values");
+		if (keys != null)
+			StatSchema.sort(keys, values, keys.length);
+		this.keys = keys;
+		this.values = values;
 		this.id = id;
 		this.name = name;
 		this.guild = guild;
 		this.date = date;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	public PlayerInfo withDate(Instant date) {
+		return new PlayerInfo(this.keys, this.values, this.id, this.name, this.guild, date, this.etag, this.lastModified);
+	}
+
+	public PlayerInfo withValidators(String etag, long lastModified) {
+		return new PlayerInfo(this.keys, this.values, this.id, this.name, this.guild, this.date, etag, lastModified);
+	}
+
+	public void forEachStat(StatSink sink) {
+		if (this.keys == null)
+			return;
+		for (int i = 0; i < this.keys.length; i++)
+			sink.accept(this.keys[i], this.values[i]);
+	}
+
+	public boolean sharesStats(PlayerInfo other) {
+		return this.keys == other.keys && this.values == other.values;
+	}
+
+	public boolean hasStats() {
+		return this.keys != null;
+	}
+
+	public int getStatCount() {
+		return this.keys == null ? 0 : this.keys.length;
+	}
+
+	public int getStatKey(int index) {
+		return this.keys[index];
+	}
+
+	public double getStatValue(int index) {
+		return this.values[index];
+	}
+
+	public OptionalDouble getStat(String section, String stat) {
+		if (this.keys == null)
+			return OptionalDouble.empty();
+		int id = StatSchema.SHARED.find(section, stat);
+		if (id == -1)
+			return OptionalDouble.empty();
+		int i = Arrays.binarySearch(this.keys, id);
+		return i < 0 ? OptionalDouble.empty() : OptionalDouble.of(this.values[i]);
 	}
 
 	public static Optional<PlayerInfo> get(String playerName, ConnectionConfiguration config, boolean stats) {
@@ -95,7 +157,8 @@ public class PlayerInfo {
 		if (json.nextToken() != JsonToken.START_OBJECT)
 			throw new IOException("Expected to start an new object");
 
-		Map<String, Map<String, Double>> statsMap = null;
+		int[] keys = null;
+		double[] values = null;
 		String name = null, guild = null;
 		UUID id = null;
 
@@ -148,21 +211,11 @@ public class PlayerInfo {
 				if (json.nextToken() != JsonToken.START_OBJECT)
 					throw new JsonParseException(json, "Field 'stats' was expected to be an object");
 
-				statsMap = new HashMap<>();
-
-				while (json.nextToken() != JsonToken.END_OBJECT) {
-					Map<String, Double> map = new HashMap<>();
-					statsMap.put(json.getCurrentName(), Collections.unmodifiableMap(map));
-
-					if (json.nextToken() != JsonToken.START_OBJECT)
-						throw new JsonParseException(json, "Subfield in 'stats' was expected to be an object");
-
-					while (json.nextToken() != JsonToken.END_OBJECT) {
-						String field2 = json.getCurrentName();
-						json.nextToken();
-						map.put(field2, json.getDoubleValue());
-					}
-				}
+				StatBuffer buffer = buffers.get();
+				buffer.size = 0;
+				readStats(json, buffer);
+				keys = Arrays.copyOf(buffer.keys, buffer.size);
+				values = Arrays.copyOf(buffer.values, buffer.size);
 				continue;
 			}
 
@@ -170,18 +223,36 @@ public class PlayerInfo {
 			json.skipChildren();
 		}
 
-		if (stats && statsMap == null)
+		if (stats && keys == null)
 			throw new IllegalArgumentException("Field 'stats' is missing");
 		if (name == null)
 			throw new IllegalArgumentException("Field 'name' is missing");
 		if (id == null)
 			throw new IllegalArgumentException("Field 'player_uuid' is missing");
 
-		return new PlayerInfo(stats ? Collections.unmodifiableMap(statsMap) : null, id, name, guild, date);
+		return new PlayerInfo(keys, values, id, name, guild, date);
+	}
+
+	public static void readStats(JsonParser json, StatSink sink) throws IOException {
+		if (json.currentToken() != JsonToken.START_OBJECT)
+			throw new JsonParseException(json, "Field 'stats' was expected to be an object");
+
+		while (json.nextToken() != JsonToken.END_OBJECT) {
+			StatSchema.Section section = StatSchema.SHARED.section(json.getCurrentName());
+
+			if (json.nextToken() != JsonToken.START_OBJECT)
+				throw new JsonParseException(json, "Subfield in 'stats' was expected to be an object");
+
+			while (json.nextToken() != JsonToken.END_OBJECT) {
+				int key = section.id(json.getCurrentName());
+				json.nextToken();
+				sink.accept(key, json.getDoubleValue());
+			}
+		}
 	}
 
 	public static UUID idFromString(String v) {
-		return UUID.fromString(v.replaceFirst("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})", "$1-$2-$3-$4-$5"));
+		return UuidCodec.parse(v);
 	}
 
 	public static Optional<PlayerInfo> get(UUID playerId, ConnectionConfiguration config, boolean stats) {
@@ -202,7 +273,7 @@ public class PlayerInfo {
 	}
 
 	public static String idToString(UUID id) {
-		return id.toString().replace("-", "");
+		return UuidCodec.toHex(id);
 	}
 
 	static {
@@ -212,4 +283,21 @@ public class PlayerInfo {
 			throw new RuntimeException(e);
 		}
 	}
+
+	private static final class StatBuffer implements StatSink {
+		private int[] keys = new int[256];
+		private double[] values = new double[256];
+		private int size;
+
+		@Override
+		public void accept(int key, double value) {
+			if (this.size == this.keys.length) {
+				this.keys = Arrays.copyOf(this.keys, this.size * 2);
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			this.keys[this.size] = key;
+			this.values[this.size] = value;
+			this.size++;
+		}
+	}
 }
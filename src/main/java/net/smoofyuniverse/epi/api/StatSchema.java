@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.api;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class StatSchema {
+	public static final StatSchema SHARED = new StatSchema();
+
+	private final ConcurrentHashMap<String, Section> sections = new ConcurrentHashMap<>();
+	private volatile String[] sectionNames = new String[256], statNames = new String[256];
+	private int size;
+
+	public int id(String section, String stat) {
+		return section(section).id(stat);
+	}
+
+	public int find(String section, String stat) {
+		Section s = this.sections.get(section);
+		if (s == null)
+			return -1;
+		Integer id = s.ids.get(stat);
+		return id == null ? -1 : id;
+	}
+
+	public Section section(String name) {
+		if (name == null)
+			throw new IllegalArgumentException("name");
+		Section s = this.sections.get(name);
+		return s == null ? this.sections.computeIfAbsent(name, Section::new) : s;
+	}
+
+	private synchronized int add(Section section, String stat) {
+		Integer id = section.ids.get(stat);
+		if (id != null)
+			return id;
+
+		if (this.size == this.sectionNames.length) {
+			this.sectionNames = Arrays.copyOf(this.sectionNames, this.size * 2);
+			this.statNames = Arrays.copyOf(this.statNames, this.size * 2);
+		}
+		this.sectionNames[this.size] = section.name;
+		this.statNames[this.size] = stat;
+		section.ids.put(stat, this.size);
+		return this.size++;
+	}
+
+	public String getSection(int id) {
+		return this.sectionNames[id];
+	}
+
+	public String getStat(int id) {
+		return this.statNames[id];
+	}
+
+	public synchronized int size() {
+		return this.size;
+	}
+
+	public final class Section {
+		public final String name;
+		private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+		private Section(String name) {
+			this.name = name;
+		}
+
+		public int id(String stat) {
+			if (stat == null)
+				throw new IllegalArgumentException("stat");
+			Integer id = this.ids.get(stat);
+			return id == null ? add(this, stat) : id;
+		}
+	}
+
+	public static void sort(int[] keys, double[] values, int size) {
+		for (int i = 1; i < size; i++) {
+			int k = keys[i];
+			if (k >= keys[i - 1])
+				continue;
+
+			double v = values[i];
+			int j = i - 1;
+			while (j >= 0 && keys[j] > k) {
+				keys[j + 1] = keys[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+			keys[j + 1] = k;
+			values[j + 1] = v;
+		}
+	}
+}
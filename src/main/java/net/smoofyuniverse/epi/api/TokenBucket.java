@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.api;
+
+import java.util.concurrent.TimeUnit;
+
+public final class TokenBucket {
+	private final double rate, capacity;
+	private double tokens;
+	private long last;
+
+	public TokenBucket(double rate, double capacity) {
+		if (rate <= 0)
+			throw new IllegalArgumentException("rate");
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity");
+		this.rate = rate;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.last = System.nanoTime();
+	}
+
+	public void acquire() throws InterruptedException {
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			this.tokens = Math.min(this.capacity, this.tokens + (now - this.last) * this.rate / 1e9);
+			this.last = now;
+
+			this.tokens--;
+			wait = this.tokens >= 0 ? 0 : (long) (-this.tokens / this.rate * 1e9);
+		}
+		if (wait > 0)
+			TimeUnit.NANOSECONDS.sleep(wait);
+	}
+
+	public double getRate() {
+		return this.rate;
+	}
+}
@@ -22,23 +22,25 @@
 
 package net.smoofyuniverse.epi.stats;
 
-import net.smoofyuniverse.common.download.ConnectionConfiguration;
+import net.smoofyuniverse.common.app.App;
 import net.smoofyuniverse.common.task.ProgressTask;
+import net.smoofyuniverse.epi.api.FetchEngine;
 import net.smoofyuniverse.epi.api.GuildInfo;
 import net.smoofyuniverse.epi.api.PlayerInfo;
+import net.smoofyuniverse.logger.core.Logger;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
-import java.util.Locale;
-import java.util.Set;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ObjectList {
 	public static final int CURRENT_VERSION = 1, MINIMUM_VERSION = 1;
+	private static final Logger logger = App.getLogger("ObjectList");
 	
 	public final Set<String> guilds = new HashSet<>();
 	public final Set<UUID> players = new HashSet<>();
@@ -109,65 +111,74 @@ public class ObjectList {
 		}
 	}
 
-	public void refresh(ProgressTask task, ConnectionConfiguration config) {
+	public void refresh(ProgressTask task, FetchEngine engine) {
 		int progress, total;
-		
+		Map<String, CompletableFuture<GuildInfo>> lookups = new ConcurrentHashMap<>();
+		Map<String, GuildInfo> newGuilds = new ConcurrentHashMap<>();
+		Set<PlayerInfo> newPlayers = ConcurrentHashMap.newKeySet();
+
 		task.setTitle("Collecte des données des guildes ..");
 		task.setProgress(0);
-		progress = 0;
-		total = this.guilds.size();
-		
-		Set<GuildInfo> newGuilds = new HashSet<>();
-		
-		for (String name : this.guilds) {
-			if (task.isCancelled())
-				return;
+		AtomicInteger guildProgress = new AtomicInteger();
+		int guildTotal = this.guilds.size();
 
-			task.setMessage("Guilde: " + name);
-			GuildInfo g = GuildInfo.get(name, config).orElse(null);
-			if (g != null) {
-				newGuilds.add(g);
-				for (UUID id : g.members)
-					this.players.remove(id);
-			}
-			task.setProgress(++progress / (double) total);
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+		for (String name : this.guilds) {
+			futures.add(lookupGuild(engine, lookups, name).thenAccept(g -> {
+				if (g != null)
+					newGuilds.put(g.name.toLowerCase(Locale.ROOT), g);
+				int n = guildProgress.incrementAndGet();
+				task.setMessage("Guilde: " + name);
+				task.setProgress(n / (double) guildTotal);
+			}));
 		}
+		if (!await(task, engine, futures))
+			return;
 		this.guilds.clear();
-		
+
+		for (GuildInfo g : newGuilds.values()) {
+			for (UUID id : g.members)
+				this.players.remove(id);
+		}
+
 		task.setTitle("Collecte des données des joueurs ..");
 		task.setProgress(0);
-		progress = 0;
-		total = this.players.size();
-		
-		Set<PlayerInfo> newPlayers = new HashSet<>();
-		
-		for (UUID id : this.players) {
-			if (task.isCancelled())
-				return;
+		AtomicInteger playerProgress = new AtomicInteger();
+		int playerTotal = this.players.size();
 
-			task.setMessage("Joueur: " + id);
-			PlayerInfo p = PlayerInfo.get(id, config, false).orElse(null);
-			if (p != null) {
-				if (p.guild == null)
-					newPlayers.add(p);
-				else {
-					GuildInfo g = GuildInfo.get(p.guild, config).orElse(null);
+		futures.clear();
+		for (UUID id : this.players) {
+			futures.add(engine.fetchPlayer(id, false).handle((p, e) -> {
+				if (p == null)
+					logger.error("Failed to get json content for player '" + id + "'", e instanceof CompletionException ? e.getCause() : e);
+				return p;
+			}).thenCompose(p -> {
+				if (p == null || p.guild == null)
+					return CompletableFuture.completedFuture(p);
+				return lookupGuild(engine, lookups, p.guild).thenApply(g -> {
 					if (g == null)
-						newPlayers.add(p);
-					else
-						newGuilds.add(g);
-				}
-			}
-			task.setProgress(++progress / (double) total);
+						return p;
+					newGuilds.put(g.name.toLowerCase(Locale.ROOT), g);
+					return null;
+				});
+			}).thenAccept(p -> {
+				if (p != null)
+					newPlayers.add(p);
+				int n = playerProgress.incrementAndGet();
+				task.setMessage("Joueur: " + id);
+				task.setProgress(n / (double) playerTotal);
+			}));
 		}
+		if (!await(task, engine, futures))
+			return;
 		this.players.clear();
-		
+
 		task.setTitle("Mise à jour de la liste des guildes ..");
 		task.setProgress(0);
 		progress = 0;
 		total = newGuilds.size();
 		
-		for (GuildInfo g : newGuilds) {
+		for (GuildInfo g : newGuilds.values()) {
 			if (task.isCancelled())
 				return;
 			task.setMessage("Guilde: " + g.name);
@@ -189,6 +200,35 @@ public class ObjectList {
 		}
 	}
 	
+	private static CompletableFuture<GuildInfo> lookupGuild(FetchEngine engine, Map<String, CompletableFuture<GuildInfo>> lookups, String name) {
+		return lookups.computeIfAbsent(name.toLowerCase(Locale.ROOT), k -> engine.fetchGuild(name).handle((g, e) -> {
+			if (g == null)
+				logger.error("Failed to get json content for guild '" + name + "'", e instanceof CompletionException ? e.getCause() : e);
+			return g;
+		}));
+	}
+
+	private static boolean await(ProgressTask task, FetchEngine engine, List<CompletableFuture<?>> futures) {
+		CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+		try {
+			while (!task.isCancelled()) {
+				try {
+					all.get(200, TimeUnit.MILLISECONDS);
+					return true;
+				} catch (TimeoutException ignored) {
+				} catch (InterruptedException e) {
+					task.cancel();
+				} catch (ExecutionException e) {
+					logger.error("Failed to refresh object list", e.getCause());
+					return false;
+				}
+			}
+			return false;
+		} finally {
+			engine.cancelAll();
+		}
+	}
+
 	public boolean addPlayer(PlayerInfo p) {
 		return this.players.add(p.id);
 	}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.collection;
+
+import net.smoofyuniverse.epi.util.ImmutableDoubleList;
+import net.smoofyuniverse.epi.util.ImmutableList;
+import net.smoofyuniverse.epi.util.ImmutableLongList;
+import net.smoofyuniverse.epi.util.StringColumn;
+import net.smoofyuniverse.epi.util.StringDictionary;
+import net.smoofyuniverse.epi.util.UuidIndex;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class ColumnarFormat {
+	public static final byte RAW = 0, DEFLATE = 1;
+
+	private ColumnarFormat() {}
+
+	public static void write(DataCollection col, DataOutputStream out) throws IOException {
+		col.load();
+		try {
+			write0(col, out);
+		} finally {
+			col.release();
+		}
+	}
+
+	private static void write0(DataCollection col, DataOutputStream out) throws IOException {
+		int size = col.size;
+		out.writeInt(size);
+		out.writeBoolean(col.containsIntervals);
+		long offset = 5;
+
+		ByteBuffer buffer = ByteBuffer.allocate(size * 8);
+		for (UUID id : col.ids)
+			buffer.putLong(id.getMostSignificantBits());
+		out.write(buffer.array());
+		buffer.clear();
+		for (UUID id : col.ids)
+			buffer.putLong(id.getLeastSignificantBits());
+		out.write(buffer.array());
+		offset += size * 16L;
+
+		if (col.containsIntervals) {
+			buffer.clear();
+			buffer.asLongBuffer().put(col.startDates.toArray());
+			out.write(buffer.array());
+			offset += size * 8L;
+		}
+
+		buffer.clear();
+		buffer.asLongBuffer().put(col.endDates.toArray());
+		out.write(buffer.array());
+		offset += size * 8L;
+
+		Map<String, Integer> codes = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		buffer.clear();
+		for (int i = 0; i < size; i++)
+			buffer.putInt(code(codes, strings, col.names.get(i)));
+		for (int i = 0; i < size; i++) {
+			String guild = col.guilds.get(i);
+			buffer.putInt(guild == null ? -1 : code(codes, strings, guild));
+		}
+		out.write(buffer.array());
+		offset += size * 8L;
+
+		out.writeInt(strings.size());
+		offset += 4;
+		for (String s : strings)
+			offset += writeString(out, s);
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] compressed = new byte[size * 8];
+		List<long[]> toc = new ArrayList<>();
+		try {
+			for (Map<String, ImmutableDoubleList> section : col.stats.values()) {
+				for (ImmutableDoubleList list : section.values()) {
+					buffer.clear();
+					int n = Math.min(list.size(), size);
+					for (int i = 0; i < n; i++)
+						buffer.putDouble(list.get(i));
+					for (int i = n; i < size; i++)
+						buffer.putDouble(0);
+
+					deflater.reset();
+					deflater.setInput(buffer.array());
+					deflater.finish();
+					int length = 0;
+					while (!deflater.finished() && length < compressed.length)
+						length += deflater.deflate(compressed, length, compressed.length - length);
+
+					if (deflater.finished() && length < compressed.length - (compressed.length >> 2)) {
+						out.write(compressed, 0, length);
+						toc.add(new long[]{DEFLATE, offset, length});
+					} else {
+						length = compressed.length;
+						out.write(buffer.array());
+						toc.add(new long[]{RAW, offset, length});
+					}
+					offset += length;
+				}
+			}
+		} finally {
+			deflater.end();
+		}
+
+		long tocOffset = offset;
+		Iterator<long[]> it = toc.iterator();
+		out.writeInt(col.stats.size());
+		for (Entry<String, Map<String, ImmutableDoubleList>> e : col.stats.entrySet()) {
+			writeString(out, e.getKey());
+			out.writeInt(e.getValue().size());
+			for (String stat : e.getValue().keySet()) {
+				long[] c = it.next();
+				writeString(out, stat);
+				out.writeByte((int) c[0]);
+				out.writeLong(c[1]);
+				out.writeInt((int) c[2]);
+			}
+		}
+		out.writeLong(tocOffset);
+	}
+
+	static int code(Map<String, Integer> codes, List<String> strings, String value) {
+		Integer code = codes.get(value);
+		if (code == null) {
+			code = strings.size();
+			codes.put(value, code);
+			strings.add(value);
+		}
+		return code;
+	}
+
+	private static int writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		return 4 + bytes.length;
+	}
+
+	public static DataCollection read(ByteBuffer buffer) throws IOException {
+		try {
+			return read0(buffer);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException("Corrupted collection", e);
+		}
+	}
+
+	private static DataCollection read0(ByteBuffer buffer) throws IOException {
+		ByteBuffer in = buffer.duplicate();
+		int size = in.getInt();
+		boolean intervals = in.get() != 0;
+		if (size < 0 || (intervals ? 40L : 32L) * size > in.remaining())
+			throw new IOException("Invalid size: " + size);
+
+		long[] msb = new long[size], lsb = new long[size];
+		in.asLongBuffer().get(msb);
+		in.position(in.position() + size * 8);
+		in.asLongBuffer().get(lsb);
+		in.position(in.position() + size * 8);
+
+		UuidIndex index = new UuidIndex(size);
+		UUID[] ids = new UUID[size];
+		for (int i = 0; i < size; i++) {
+			UUID id = new UUID(msb[i], lsb[i]);
+			ids[i] = id;
+
+			index.put(msb[i], lsb[i], i);
+		}
+
+		long[] startDates = null;
+		if (intervals) {
+			startDates = new long[size];
+			in.asLongBuffer().get(startDates);
+			in.position(in.position() + size * 8);
+		}
+
+		long[] endDates = new long[size];
+		in.asLongBuffer().get(endDates);
+		in.position(in.position() + size * 8);
+
+		int[] nameCodes = new int[size], guildCodes = new int[size];
+		in.asIntBuffer().get(nameCodes);
+		in.position(in.position() + size * 4);
+		in.asIntBuffer().get(guildCodes);
+		in.position(in.position() + size * 4);
+
+		int count = in.getInt();
+		if (count < 0 || 4L * count > in.remaining())
+			throw new IOException("Invalid string count: " + count);
+		StringDictionary dictionary = new StringDictionary();
+		int[] remap = new int[count];
+		for (int i = 0; i < count; i++)
+			remap[i] = dictionary.code(readString(in));
+
+		for (int i = 0; i < size; i++) {
+			nameCodes[i] = remap[nameCodes[i]];
+			int g = guildCodes[i];
+			guildCodes[i] = g == -1 ? -1 : remap[g];
+		}
+
+		in.position(checkedPosition(buffer, in.getLong(buffer.limit() - 8)));
+
+		Map<String, Map<String, ImmutableDoubleList>> stats = new HashMap<>();
+		byte[] scratch = null;
+		int maps = in.getInt();
+		for (int j = 0; j < maps; j++) {
+			String key = readString(in);
+			int columns = in.getInt();
+			Map<String, LazyColumn> map = new HashMap<>();
+			for (int y = 0; y < columns; y++) {
+				String stat = readString(in);
+				byte compression = in.get();
+				int offset = checkedPosition(buffer, in.getLong());
+				int length = in.getInt();
+				if (length < 0 || (long) offset + length > buffer.limit() - 8)
+					throw new IOException("Invalid column: " + key + "." + stat);
+
+				if (compression == RAW) {
+					if (length != size * 8)
+						throw new IOException("Invalid column length: " + key + "." + stat);
+					map.put(stat, new RawColumn(buffer, offset, size));
+				} else if (compression == DEFLATE) {
+					DeflateColumn column = new DeflateColumn(buffer, offset, length, size);
+					if (scratch == null)
+						scratch = new byte[size * 8];
+					// Inflated once here so that a corrupted column fails the read instead of a later access
+					column.inflate(scratch);
+					map.put(stat, column);
+				} else
+					throw new IOException("Unknown compression: " + compression);
+			}
+			stats.put(key, new LazyColumnMap(Collections.unmodifiableMap(map)));
+		}
+
+		return new DataCollection(index, Collections.unmodifiableMap(stats), ImmutableList.of(ids), StringColumn.of(dictionary, nameCodes),
+				StringColumn.of(dictionary, guildCodes), startDates == null ? null : ImmutableLongList.of(startDates), ImmutableLongList.of(endDates), size);
+	}
+
+	private static int checkedPosition(ByteBuffer buffer, long position) throws IOException {
+		if (position < 0 || position > buffer.limit() - 8)
+			throw new IOException("Invalid offset: " + position);
+		return (int) position;
+	}
+
+	private static String readString(ByteBuffer in) throws IOException {
+		int len = in.getInt();
+		if (len < 0 || len > in.remaining())
+			throw new IOException("Corrupted string length");
+		byte[] bytes = new byte[len];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static final class RawColumn extends LazyColumn {
+		private final ByteBuffer buffer;
+		private final int offset, size;
+
+		public RawColumn(ByteBuffer buffer, int offset, int size) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		@Override
+		protected double[] decode() {
+			ByteBuffer in = this.buffer.duplicate();
+			in.position(this.offset);
+			double[] values = new double[this.size];
+			in.asDoubleBuffer().get(values);
+			return values;
+		}
+	}
+
+	private static final class DeflateColumn extends LazyColumn {
+		private final ByteBuffer buffer;
+		private final int offset, length, size;
+
+		public DeflateColumn(ByteBuffer buffer, int offset, int length, int size) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+			this.size = size;
+		}
+
+		@Override
+		protected double[] decode() throws IOException {
+			byte[] output = new byte[this.size * 8];
+			inflate(output);
+
+			double[] values = new double[this.size];
+			ByteBuffer.wrap(output).asDoubleBuffer().get(values);
+			return values;
+		}
+
+		void inflate(byte[] output) throws IOException {
+			ByteBuffer in = this.buffer.duplicate();
+			in.position(this.offset);
+			byte[] input = new byte[this.length];
+			in.get(input);
+
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(input);
+				int n = 0;
+				while (n < output.length && !inflater.finished()) {
+					int r = inflater.inflate(output, n, output.length - n);
+					if (r == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					n += r;
+				}
+				if (n != output.length)
+					throw new IOException("Truncated column");
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+}
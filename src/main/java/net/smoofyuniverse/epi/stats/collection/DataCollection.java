@@ -23,41 +23,54 @@
 package net.smoofyuniverse.epi.stats.collection;
 
 import net.smoofyuniverse.epi.api.PlayerInfo;
+import net.smoofyuniverse.epi.api.StatSchema;
 import net.smoofyuniverse.epi.util.DoubleIterator;
-import net.smoofyuniverse.epi.util.DoubleList;
 import net.smoofyuniverse.epi.util.ImmutableDoubleList;
 import net.smoofyuniverse.epi.util.ImmutableList;
-
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import net.smoofyuniverse.epi.util.ImmutableLongList;
+import net.smoofyuniverse.epi.util.StringColumn;
+import net.smoofyuniverse.epi.util.StringDictionary;
+import net.smoofyuniverse.epi.util.UuidIndex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 public class DataCollection {
-	public static final int CURRENT_VERSION = 3, MINIMUM_VERSION = 1;
+	// File versions, as written by save: 1 to 3 are gzipped streams, 4 is the columnar format.
+	// Stream versions, as written by serialize, are numbered separately: 1 to 3 match the file versions, 4 adds the string table.
+	// Stream versions are never written, ranking lists and snapshots pass the one matching their own version to deserialize.
+	public static final int CURRENT_VERSION = 4, MINIMUM_VERSION = 1;
 
+	public final UuidIndex index;
 	public final Map<UUID, Integer> players;
 
 	public final Map<String, Map<String, ImmutableDoubleList>> stats;
 	public final ImmutableList<UUID> ids;
-	public final ImmutableList<String> names, guilds;
-	public final ImmutableList<Instant> startDates, endDates;
+	public final StringColumn names, guilds;
+	public final ImmutableLongList startDates, endDates;
 
 	public final Instant minStartDate, maxStartDate, minEndDate, maxEndDate;
 	public final boolean containsIntervals;
 	public final int size;
 
-	private DataCollection(Map<UUID, Integer> players, Map<String, Map<String, ImmutableDoubleList>> stats, ImmutableList<UUID> ids, ImmutableList<String> names,
-						   ImmutableList<String> guilds, ImmutableList<Instant> startDates, ImmutableList<Instant> endDates,
-						   Instant minStartDate, Instant maxStartDate, Instant minEndDate, Instant maxEndDate, int size) {
-		this.players = players;
+	DataCollection(UuidIndex index, Map<String, Map<String, ImmutableDoubleList>> stats, ImmutableList<UUID> ids, StringColumn names,
+				   StringColumn guilds, ImmutableLongList startDates, ImmutableLongList endDates, int size) {
+		this.index = index;
+		this.players = index.asMap();
 
 		this.stats = stats;
 		this.names = names;
@@ -66,30 +79,40 @@ public class DataCollection {
 		this.startDates = startDates;
 		this.endDates = endDates;
 
-		this.minStartDate = minStartDate;
-		this.maxStartDate = maxStartDate;
-		this.minEndDate = minEndDate;
-		this.maxEndDate = maxEndDate;
+		this.containsIntervals = startDates != null;
+		boolean empty = endDates.isEmpty();
+		this.minStartDate = this.containsIntervals && !empty ? Instant.ofEpochMilli(startDates.min()) : null;
+		this.maxStartDate = this.containsIntervals && !empty ? Instant.ofEpochMilli(startDates.max()) : null;
+		this.minEndDate = empty ? null : Instant.ofEpochMilli(endDates.min());
+		this.maxEndDate = empty ? null : Instant.ofEpochMilli(endDates.max());
 
-		this.containsIntervals = this.startDates != null;
 		this.size = size;
 	}
 
+	public Instant getStartDate(int index) {
+		return this.startDates == null ? null : Instant.ofEpochMilli(this.startDates.get(index));
+	}
+
+	public Instant getEndDate(int index) {
+		return Instant.ofEpochMilli(this.endDates.get(index));
+	}
+
 	public void save(Path file) throws IOException {
-		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
-			save(out);
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				save(out);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
 		}
 	}
 
 	public void save(DataOutputStream out) throws IOException {
 		out.writeInt(CURRENT_VERSION);
-
-		GZIPOutputStream zip = new GZIPOutputStream(out);
-		out = new DataOutputStream(zip);
-
-		serialize(out, true, true);
-
-		zip.finish();
+		ColumnarFormat.write(this, out);
+		out.flush();
 	}
 
 	public void serialize(DataOutputStream out, boolean writeGuilds, boolean writeStats) throws IOException {
@@ -100,22 +123,41 @@ public class DataCollection {
 			out.writeLong(id.getLeastSignificantBits());
 		}
 
-		for (String name : this.names)
-			out.writeUTF(name);
+		Map<String, Integer> codes = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		int[] nameCodes = new int[this.size];
+		for (int i = 0; i < this.size; i++)
+			nameCodes[i] = ColumnarFormat.code(codes, strings, this.names.get(i));
 
+		int[] guildCodes = null;
 		if (writeGuilds) {
-			for (String guild : this.guilds)
-				out.writeUTF(guild == null ? "" : guild);
+			guildCodes = new int[this.size];
+			for (int i = 0; i < this.size; i++) {
+				String guild = this.guilds.get(i);
+				guildCodes[i] = guild == null ? -1 : ColumnarFormat.code(codes, strings, guild);
+			}
+		}
+
+		out.writeInt(strings.size());
+		for (String s : strings)
+			out.writeUTF(s);
+
+		for (int code : nameCodes)
+			out.writeInt(code);
+
+		if (writeGuilds) {
+			for (int code : guildCodes)
+				out.writeInt(code);
 		}
 
 		out.writeBoolean(this.containsIntervals);
 		if (this.containsIntervals) {
-			for (Instant date : this.startDates)
-				out.writeLong(date.toEpochMilli());
+			for (int i = 0; i < this.size; i++)
+				out.writeLong(this.startDates.get(i));
 		}
 
-		for (Instant date : this.endDates)
-			out.writeLong(date.toEpochMilli());
+		for (int i = 0; i < this.size; i++)
+			out.writeLong(this.endDates.get(i));
 
 		if (writeStats) {
 			out.writeInt(this.stats.size());
@@ -132,11 +174,73 @@ public class DataCollection {
 		}
 	}
 
+	public void load() throws IOException {
+		pin(columns(this.stats.values()));
+	}
+
+	public void load(String section) throws IOException {
+		Map<String, ImmutableDoubleList> map = this.stats.get(section);
+		if (map != null)
+			pin(columns(Collections.singleton(map)));
+	}
+
+	public void release() {
+		columns(this.stats.values()).forEach(LazyColumn::release);
+	}
+
+	public void release(String section) {
+		Map<String, ImmutableDoubleList> map = this.stats.get(section);
+		if (map != null)
+			columns(Collections.singleton(map)).forEach(LazyColumn::release);
+	}
+
+	private static List<LazyColumn> columns(Collection<Map<String, ImmutableDoubleList>> sections) {
+		List<LazyColumn> columns = new ArrayList<>();
+		for (Map<String, ImmutableDoubleList> section : sections) {
+			for (String stat : section.keySet())
+				columns.add(LazyColumnMap.getColumn(section, stat).get());
+		}
+		return columns;
+	}
+
+	private static void pin(List<LazyColumn> columns) throws IOException {
+		Queue<LazyColumn> pinned = new ConcurrentLinkedQueue<>();
+		try {
+			columns.parallelStream().forEach(c -> {
+				try {
+					c.pin();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				pinned.add(c);
+			});
+		} catch (UncheckedIOException e) {
+			pinned.forEach(LazyColumn::release);
+			throw e.getCause();
+		}
+	}
+
 	public static DataCollection read(Path file) throws IOException {
 		if (!Files.exists(file))
 			throw new FileNotFoundException(file.getFileName().toString());
 
-		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0)
+					throw new EOFException();
+			}
+
+			int version = header.getInt(0);
+			if (version == 4) {
+				long length = channel.size() - 4;
+				if (length > Integer.MAX_VALUE)
+					throw new IOException("Collection too large to be mapped");
+				return ColumnarFormat.read(channel.map(MapMode.READ_ONLY, 4, length));
+			}
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
 			return read(in);
 		}
 	}
@@ -146,6 +250,15 @@ public class DataCollection {
 		if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
 			throw new IOException("Invalid format version: " + version);
 
+		if (version == 4) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				bytes.write(buffer, 0, n);
+			return ColumnarFormat.read(ByteBuffer.wrap(bytes.toByteArray()));
+		}
+
 		if (version >= 2)
 			in = new DataInputStream(new GZIPInputStream(in));
 
@@ -164,69 +277,75 @@ public class DataCollection {
 					guild = null;
 				Instant date = Instant.ofEpochMilli(in.readLong());
 
-				Map<String, Map<String, Double>> stats = new HashMap<>();
+				int[] keys = new int[0];
+				double[] values = new double[0];
 				int maps = in.readInt();
 				for (int j = 0; j < maps; j++) {
-					Map<String, Double> map = new HashMap<>();
-					stats.put(in.readUTF(), map);
-					int count = in.readInt();
-					for (int y = 0; y < count; y++)
-						map.put(in.readUTF(), in.readDouble());
+					String section = in.readUTF();
+					int count = in.readInt(), offset = keys.length;
+					keys = Arrays.copyOf(keys, offset + count);
+					values = Arrays.copyOf(values, offset + count);
+					for (int y = 0; y < count; y++) {
+						keys[offset + y] = StatSchema.SHARED.id(section, in.readUTF());
+						values[offset + y] = in.readDouble();
+					}
 				}
 
-				b.add(Collections.unmodifiableMap(stats), id, name, guild, date);
+				b.add(new PlayerInfo(keys, values, id, name, guild, date));
 			}
 			return b.build();
 		}
 
-		Map<UUID, Integer> players = new HashMap<>();
+		UuidIndex index = new UuidIndex(size);
 		UUID[] ids = new UUID[size];
 		for (int i = 0; i < size; i++) {
 			UUID id = new UUID(in.readLong(), in.readLong());
 			ids[i] = id;
 
-			players.put(id, i);
+			index.put(id, i);
 		}
 
-		String[] names = new String[size];
-		for (int i = 0; i < size; i++)
-			names[i] = in.readUTF();
-
-
-		String[] guilds = new String[size];
-		if (readGuilds) {
-			for (int i = 0; i < size; i++) {
-				String g = in.readUTF();
-				guilds[i] = g.isEmpty() ? null : g;
-			}
+		StringDictionary dictionary = new StringDictionary();
+		int[] names = new int[size], guilds = new int[size];
+		if (version >= 4) {
+			int count = in.readInt();
+			int[] remap = new int[count];
+			for (int i = 0; i < count; i++)
+				remap[i] = dictionary.code(in.readUTF());
+
+			for (int i = 0; i < size; i++)
+				names[i] = remap[in.readInt()];
+
+			if (readGuilds) {
+				for (int i = 0; i < size; i++) {
+					int g = in.readInt();
+					guilds[i] = g == -1 ? -1 : remap[g];
+				}
+			} else
+				Arrays.fill(guilds, -1);
+		} else {
+			for (int i = 0; i < size; i++)
+				names[i] = dictionary.code(in.readUTF());
+
+			if (readGuilds) {
+				for (int i = 0; i < size; i++) {
+					String g = in.readUTF();
+					guilds[i] = g.isEmpty() ? -1 : dictionary.code(g);
+				}
+			} else
+				Arrays.fill(guilds, -1);
 		}
 
-		Instant minStartDate = null, maxStartDate = null;
-		Instant[] startDates = null;
+		long[] startDates = null;
 		if (in.readBoolean()) {
-			startDates = new Instant[size];
-			for (int i = 0; i < size; i++) {
-				Instant t = Instant.ofEpochMilli(in.readLong());
-				startDates[i] = t;
-
-				if (minStartDate == null || t.isBefore(minStartDate))
-					minStartDate = t;
-				if (maxStartDate == null || t.isAfter(maxStartDate))
-					maxStartDate = t;
-			}
+			startDates = new long[size];
+			for (int i = 0; i < size; i++)
+				startDates[i] = in.readLong();
 		}
 
-		Instant minEndDate = null, maxEndDate = null;
-		Instant[] endDates = new Instant[size];
-		for (int i = 0; i < size; i++) {
-			Instant t = Instant.ofEpochMilli(in.readLong());
-			endDates[i] = t;
-
-			if (minEndDate == null || t.isBefore(minEndDate))
-				minEndDate = t;
-			if (maxEndDate == null || t.isAfter(maxEndDate))
-				maxEndDate = t;
-		}
+		long[] endDates = new long[size];
+		for (int i = 0; i < size; i++)
+			endDates[i] = in.readLong();
 
 		Map<String, Map<String, ImmutableDoubleList>> stats = new HashMap<>();
 		if (readStats) {
@@ -246,11 +365,15 @@ public class DataCollection {
 			}
 		}
 
-		return new DataCollection(Collections.unmodifiableMap(players), Collections.unmodifiableMap(stats), ImmutableList.of(ids), ImmutableList.of(names),
-				ImmutableList.of(guilds), startDates == null ? null : ImmutableList.of(startDates), ImmutableList.of(endDates), minStartDate, maxStartDate, minEndDate, maxEndDate, size);
+		return new DataCollection(index, Collections.unmodifiableMap(stats), ImmutableList.of(ids), StringColumn.of(dictionary, names),
+				StringColumn.of(dictionary, guilds), startDates == null ? null : ImmutableLongList.of(startDates), ImmutableLongList.of(endDates), size);
 	}
 
 	public static DataMergeResult merge(Collection<UUID> col, DataCollection start, DataCollection end) {
+		return merge(col, start, end, null);
+	}
+
+	public static DataMergeResult merge(Collection<UUID> col, DataCollection start, DataCollection end, Set<String> sections) {
 		boolean useIntervals = start != null;
 
 		if (end.containsIntervals || (useIntervals && start.containsIntervals))
@@ -270,15 +393,16 @@ public class DataCollection {
 
 		int current = 0;
 		for (UUID id : col) {
-			Integer index1 = end.players.get(id);
-			if (index1 == null) {
+			long most = id.getMostSignificantBits(), least = id.getLeastSignificantBits();
+			int index1 = end.index.get(most, least);
+			if (index1 == -1) {
 				endMissing++;
 				continue;
 			}
 
 			if (useIntervals) {
-				Integer index2 = start.players.get(id);
-				if (index2 == null) {
+				int index2 = start.index.get(most, least);
+				if (index2 == -1) {
 					startMissing++;
 					continue;
 				}
@@ -290,52 +414,36 @@ public class DataCollection {
 			current++;
 		}
 
-		Map<UUID, Integer> players = new HashMap<>();
-		UUID[] ids = new UUID[size];
-		for (int i = 0; i < size; i++) {
-			UUID id = end.ids.get(endIndexes[i]);
-			ids[i] = id;
-
-			players.put(id, i);
-		}
-
-		String[] names = new String[size];
-		for (int i = 0; i < size; i++)
-			names[i] = end.names.get(endIndexes[i]);
-
-		String[] guilds = new String[size];
-		for (int i = 0; i < size; i++)
-			guilds[i] = end.guilds.get(endIndexes[i]);
-
-		Instant minStartDate = null, maxStartDate = null;
-		Instant[] startDates = null;
-		if (useIntervals) {
-			startDates = new Instant[size];
-			for (int i = 0; i < size; i++) {
-				Instant t = start.endDates.get(startIndexes[i]);
-				startDates[i] = t;
-
-				if (minStartDate == null || t.isBefore(minStartDate))
-					minStartDate = t;
-				if (maxStartDate == null || t.isAfter(maxStartDate))
-					maxStartDate = t;
-			}
+		if (current < size) {
+			size = current;
+			endIndexes = Arrays.copyOf(endIndexes, size);
+			if (useIntervals)
+				startIndexes = Arrays.copyOf(startIndexes, size);
 		}
 
-		Instant minEndDate = null, maxEndDate = null;
-		Instant[] endDates = new Instant[size];
+		UuidIndex index = new UuidIndex(size);
+		UUID[] ids = new UUID[size];
+		int[] names = new int[size], guilds = new int[size];
+		long[] endDates = new long[size];
+		long[] startDates = useIntervals ? new long[size] : null;
 		for (int i = 0; i < size; i++) {
-			Instant t = end.endDates.get(endIndexes[i]);
-			endDates[i] = t;
+			int j = endIndexes[i];
+			UUID id = end.ids.get(j);
+			ids[i] = id;
+			index.put(id, i);
 
-			if (minEndDate == null || t.isBefore(minEndDate))
-				minEndDate = t;
-			if (maxEndDate == null || t.isAfter(maxEndDate))
-				maxEndDate = t;
+			names[i] = end.names.getCode(j);
+			guilds[i] = end.guilds.getCode(j);
+			endDates[i] = end.endDates.get(j);
+			if (useIntervals)
+				startDates[i] = start.endDates.get(startIndexes[i]);
 		}
 
 		Map<String, Map<String, ImmutableDoubleList>> stats = new HashMap<>();
 		for (Entry<String, Map<String, ImmutableDoubleList>> e : end.stats.entrySet()) {
+			if (sections != null && !sections.contains(e.getKey()))
+				continue;
+
 			Map<String, ImmutableDoubleList> e2 = null;
 			if (useIntervals) {
 				e2 = start.stats.get(e.getKey());
@@ -343,196 +451,201 @@ public class DataCollection {
 					continue;
 			}
 
-			Map<String, ImmutableDoubleList> section = new HashMap<>();
+			Map<String, LazyColumn> section = new HashMap<>();
 
-			for (Entry<String, ImmutableDoubleList> stat : e.getValue().entrySet()) {
-				ImmutableDoubleList list2 = null;
+			for (String stat : e.getValue().keySet()) {
+				LazyColumn column2 = null;
 				if (useIntervals) {
-					list2 = e2.get(stat.getKey());
-					if (list2 == null)
+					column2 = LazyColumnMap.getColumn(e2, stat).orElse(null);
+					if (column2 == null)
 						continue;
 				}
 
-				ImmutableDoubleList list1 = stat.getValue();
-
-				double[] values = new double[size];
-				if (useIntervals) {
-					for (int i = 0; i < size; i++)
-						values[i] = list1.get(endIndexes[i]) - list2.get(startIndexes[i]);
-				} else {
-					for (int i = 0; i < size; i++)
-						values[i] = list1.get(endIndexes[i]);
-				}
-
-				section.put(stat.getKey(), ImmutableDoubleList.of(values));
+				LazyColumn column1 = LazyColumnMap.getColumn(e.getValue(), stat).get();
+				LazyColumn column = new MergedColumn(column1, endIndexes, column2, startIndexes, size);
+				// A merged column would keep resident sources in memory, so it is gathered once instead
+				if (column1.isResident() || (column2 != null && column2.isResident()))
+					column = LazyColumn.of(column.get());
+				section.put(stat, column);
 			}
 
-			stats.put(e.getKey(), Collections.unmodifiableMap(section));
+			stats.put(e.getKey(), new LazyColumnMap(Collections.unmodifiableMap(section)));
 		}
 
-		return new DataMergeResult(new DataCollection(Collections.unmodifiableMap(players), Collections.unmodifiableMap(stats), ImmutableList.of(ids), ImmutableList.of(names),
-				ImmutableList.of(guilds), startDates == null ? null : ImmutableList.of(startDates), ImmutableList.of(endDates), minStartDate, maxStartDate, minEndDate, maxEndDate, size),
+		return new DataMergeResult(new DataCollection(index, Collections.unmodifiableMap(stats), ImmutableList.of(ids), StringColumn.of(end.names.getDictionary(), names),
+				StringColumn.of(end.guilds.getDictionary(), guilds), startDates == null ? null : ImmutableLongList.of(startDates), ImmutableLongList.of(endDates), size),
 				startMissing, endMissing);
 	}
 
+	private static final class MergedColumn extends LazyColumn {
+		private final LazyColumn end, start;
+		private final int[] endIndexes, startIndexes;
+		private final int size;
+
+		public MergedColumn(LazyColumn end, int[] endIndexes, LazyColumn start, int[] startIndexes, int size) {
+			this.end = end;
+			this.endIndexes = endIndexes;
+			this.start = start;
+			this.startIndexes = startIndexes;
+			this.size = size;
+		}
+
+		@Override
+		protected double[] decode() {
+			ImmutableDoubleList list1 = this.end.get();
+			double[] values = new double[this.size];
+			if (this.start != null) {
+				ImmutableDoubleList list2 = this.start.get();
+				for (int i = 0; i < this.size; i++)
+					values[i] = list1.get(this.endIndexes[i]) - list2.get(this.startIndexes[i]);
+			} else {
+				for (int i = 0; i < this.size; i++)
+					values[i] = list1.get(this.endIndexes[i]);
+			}
+			return values;
+		}
+	}
+
 	public static Builder builder(int capacity, boolean useIntervals) {
 		return new Builder(capacity, useIntervals);
 	}
 
 	public static class Builder {
-		private Map<UUID, Integer> players = new HashMap<>();
+		private final Set<UUID> added;
+		private volatile AtomicReferenceArray<double[]> columns = new AtomicReferenceArray<>(Math.max(16, StatSchema.SHARED.size()));
+		private final UUID[] ids;
+		private final StringDictionary dictionary = new StringDictionary();
+		private final int[] names, guilds;
+		private final long[] startDates, endDates;
 
-		private Map<String, Map<String, DoubleList>> stats;
-		private List<UUID> ids;
-		private List<String> names, guilds;
-		private List<Instant> startDates, endDates;
-
-		private Instant minStartDate, maxStartDate, minEndDate, maxEndDate;
-		private int capacity, size;
+		private final AtomicInteger next = new AtomicInteger();
+		private final int capacity;
 
 		private Builder(int capacity, boolean useIntervals) {
 			this.capacity = capacity;
 
-			this.ids = new ArrayList<>(capacity);
-			this.names = new ArrayList<>(capacity);
-			this.guilds = new ArrayList<>(capacity);
-			if (useIntervals)
-				this.startDates = new ArrayList<>(capacity);
-			this.endDates = new ArrayList<>(capacity);
-
-			this.stats = new HashMap<>();
+			this.added = ConcurrentHashMap.newKeySet(capacity);
+			this.ids = new UUID[capacity];
+			this.names = new int[capacity];
+			this.guilds = new int[capacity];
+			this.startDates = useIntervals ? new long[capacity] : null;
+			this.endDates = new long[capacity];
 		}
 
 		public void add(PlayerInfo info) {
-			add(info.stats, info.id, info.name, info.guild, info.date);
+			int row = addRow(info.id, info.name, info.guild, null, info.date);
+			info.forEachStat((key, value) -> column(key)[row] = value);
 		}
 
-		public synchronized void add(Map<String, Map<String, Double>> stats, UUID id, String name, String guild, Instant date) {
-			if (this.size >= this.capacity)
-				throw new IndexOutOfBoundsException("Capacity: " + this.capacity);
-			if (this.startDates != null)
-				throw new UnsupportedOperationException();
-			if (id == null || name == null || date == null)
+		public void add(UUID id, String name, String guild, Instant date) {
+			if (date == null)
 				throw new IllegalArgumentException();
-			if (this.players.containsKey(id))
-				throw new IllegalArgumentException("Already added");
-
-			this.players.put(id, this.size);
-
-			if (stats != null) {
-				for (Entry<String, Map<String, Double>> e : stats.entrySet()) {
-					Map<String, DoubleList> section = this.stats.get(e.getKey());
-					if (section == null) {
-						section = new HashMap<>();
-						this.stats.put(e.getKey(), section);
-					}
-
-					for (Entry<String, Double> stat : e.getValue().entrySet()) {
-						DoubleList list = section.get(stat.getKey());
-						if (list == null) {
-							list = new DoubleList(this.capacity);
-							section.put(stat.getKey(), list);
-						}
-
-						list.set(this.size, stat.getValue());
-					}
-				}
-			}
-
-			this.ids.add(id);
-			this.names.add(name);
-			this.guilds.add(guild);
-			this.endDates.add(date);
-
-			if (this.minEndDate == null || date.isBefore(this.minEndDate))
-				this.minEndDate = date;
-			if (this.maxEndDate == null || date.isAfter(this.maxEndDate))
-				this.maxEndDate = date;
-
-			this.size++;
+			addRow(id, name, guild, null, date);
 		}
 
 		public void add(PlayerInfo start, PlayerInfo end) {
 			if (!start.id.equals(end.id))
 				throw new IllegalArgumentException("UUID mismatch");
-			add(start.stats, end.stats, end.id, end.name, end.guild, start.date, end.date);
+			int row = addRow(end.id, end.name, end.guild, start.date, end.date);
+
+			int i = 0, j = 0, n = end.getStatCount(), m = start.getStatCount();
+			while (i < n && j < m) {
+				int key = end.getStatKey(i), key2 = start.getStatKey(j);
+				if (key < key2)
+					i++;
+				else if (key > key2)
+					j++;
+				else {
+					column(key)[row] = end.getStatValue(i++) - start.getStatValue(j++);
+				}
+			}
 		}
 
-		public synchronized void add(Map<String, Map<String, Double>> startStats, Map<String, Map<String, Double>> endStats, UUID id, String name, String guild, Instant startDate, Instant endDate) {
-			if (this.size >= this.capacity)
-				throw new IndexOutOfBoundsException("Capacity: " + this.capacity);
-			if (this.startDates == null)
+		public void add(UUID id, String name, String guild, Instant startDate, Instant endDate) {
+			if (startDate == null || endDate == null)
+				throw new IllegalArgumentException();
+			addRow(id, name, guild, startDate, endDate);
+		}
+
+		private int addRow(UUID id, String name, String guild, Instant startDate, Instant endDate) {
+			if ((this.startDates == null) != (startDate == null))
 				throw new UnsupportedOperationException();
-			if (id == null || name == null || startDate == null || endDate == null)
+			if (id == null || name == null || endDate == null)
 				throw new IllegalArgumentException();
-			if (this.players.containsKey(id))
+			if (!this.added.add(id))
 				throw new IllegalArgumentException("Already added");
 
-			this.players.put(id, this.size);
-
-			if (startStats != null && endStats != null) {
-				for (Entry<String, Map<String, Double>> e : endStats.entrySet()) {
-					Map<String, Double> e2 = startStats.get(e.getKey());
-					if (e2 == null)
-						continue;
-
-					Map<String, DoubleList> section = this.stats.get(e.getKey());
-					if (section == null) {
-						section = new HashMap<>();
-						this.stats.put(e.getKey(), section);
-					}
-
-					for (Entry<String, Double> stat : e.getValue().entrySet()) {
-						Double stat2 = e2.get(stat.getKey());
-						if (stat2 == null)
-							continue;
-
-						DoubleList list = section.get(stat.getKey());
-						if (list == null) {
-							list = new DoubleList(this.capacity);
-							section.put(stat.getKey(), list);
-						}
-
-						list.set(this.size, stat.getValue() - stat2);
-					}
-				}
+			int row = this.next.getAndIncrement();
+			if (row >= this.capacity) {
+				this.next.decrementAndGet();
+				this.added.remove(id);
+				throw new IndexOutOfBoundsException("Capacity: " + this.capacity);
 			}
 
-			this.ids.add(id);
-			this.names.add(name);
-			this.guilds.add(guild);
-			this.startDates.add(startDate);
-			this.endDates.add(endDate);
+			this.ids[row] = id;
+			this.names[row] = this.dictionary.code(name);
+			this.guilds[row] = this.dictionary.code(guild);
+			if (startDate != null)
+				this.startDates[row] = startDate.toEpochMilli();
+			this.endDates[row] = endDate.toEpochMilli();
+			return row;
+		}
 
-			if (this.minStartDate == null || startDate.isBefore(this.minStartDate))
-				this.minStartDate = startDate;
-			if (this.maxStartDate == null || startDate.isAfter(this.maxStartDate))
-				this.maxStartDate = startDate;
+		private double[] column(int key) {
+			AtomicReferenceArray<double[]> columns = this.columns;
+			if (key < columns.length()) {
+				double[] column = columns.get(key);
+				if (column != null)
+					return column;
+			}
+			return createColumn(key);
+		}
 
-			if (this.minEndDate == null || endDate.isBefore(this.minEndDate))
-				this.minEndDate = endDate;
-			if (this.maxEndDate == null || endDate.isAfter(this.maxEndDate))
-				this.maxEndDate = endDate;
+		private synchronized double[] createColumn(int key) {
+			AtomicReferenceArray<double[]> columns = this.columns;
+			if (key >= columns.length()) {
+				AtomicReferenceArray<double[]> grown = new AtomicReferenceArray<>(Math.max(key + 1, columns.length() * 2));
+				for (int i = 0; i < columns.length(); i++)
+					grown.set(i, columns.get(i));
+				this.columns = columns = grown;
+			}
 
-			this.size++;
+			double[] column = columns.get(key);
+			if (column == null) {
+				column = new double[this.capacity];
+				columns.set(key, column);
+			}
+			return column;
 		}
 
 		public int size() {
-			return this.size;
+			return Math.min(this.next.get(), this.capacity);
 		}
 
 		public DataCollection build() {
-			Map<String, Map<String, ImmutableDoubleList>> newStats = new HashMap<>();
-			for (Entry<String, Map<String, DoubleList>> e : this.stats.entrySet()) {
-				Map<String, ImmutableDoubleList> section = new HashMap<>();
-				for (Entry<String, DoubleList> list : e.getValue().entrySet())
-					section.put(list.getKey(), list.getValue().toImmutable());
-				newStats.put(e.getKey(), Collections.unmodifiableMap(section));
+			int size = size();
+
+			Map<String, Map<String, ImmutableDoubleList>> sections = new HashMap<>();
+			AtomicReferenceArray<double[]> columns = this.columns;
+			for (int key = 0; key < columns.length(); key++) {
+				double[] column = columns.get(key);
+				if (column == null)
+					continue;
+				sections.computeIfAbsent(StatSchema.SHARED.getSection(key), k -> new HashMap<>()).put(StatSchema.SHARED.getStat(key), ImmutableDoubleList.of(Arrays.copyOf(column, size)));
 			}
 
-			return new DataCollection(Collections.unmodifiableMap(this.players), Collections.unmodifiableMap(newStats), ImmutableList.copyOf(this.ids),
-					ImmutableList.copyOf(this.names), ImmutableList.copyOf(this.guilds), this.startDates == null ? null : ImmutableList.copyOf(this.startDates),
-					ImmutableList.copyOf(this.endDates), this.minStartDate, this.maxStartDate, this.minEndDate, this.maxEndDate, this.size);
+			Map<String, Map<String, ImmutableDoubleList>> newStats = new HashMap<>();
+			for (Entry<String, Map<String, ImmutableDoubleList>> e : sections.entrySet())
+				newStats.put(e.getKey(), Collections.unmodifiableMap(e.getValue()));
+
+			UUID[] ids = Arrays.copyOf(this.ids, size);
+			UuidIndex index = new UuidIndex(size);
+			for (int i = 0; i < size; i++)
+				index.put(ids[i], i);
+
+			return new DataCollection(index, Collections.unmodifiableMap(newStats), ImmutableList.of(ids),
+					StringColumn.of(this.dictionary, Arrays.copyOf(this.names, size)), StringColumn.of(this.dictionary, Arrays.copyOf(this.guilds, size)), this.startDates == null ? null : ImmutableLongList.of(Arrays.copyOf(this.startDates, size)),
+					ImmutableLongList.of(Arrays.copyOf(this.endDates, size)), size);
 		}
 	}
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.collection;
+
+import net.smoofyuniverse.epi.util.ImmutableDoubleList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+
+public abstract class LazyColumn {
+	private volatile SoftReference<ImmutableDoubleList> reference;
+	private ImmutableDoubleList pinned;
+	private int pins;
+
+	public ImmutableDoubleList get() {
+		try {
+			return load();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private ImmutableDoubleList load() throws IOException {
+		SoftReference<ImmutableDoubleList> ref = this.reference;
+		ImmutableDoubleList l = ref == null ? null : ref.get();
+		if (l == null) {
+			synchronized (this) {
+				ref = this.reference;
+				l = ref == null ? null : ref.get();
+				if (l == null) {
+					l = ImmutableDoubleList.of(decode());
+					this.reference = new SoftReference<>(l);
+				}
+			}
+		}
+		return l;
+	}
+
+	public boolean isLoaded() {
+		SoftReference<ImmutableDoubleList> ref = this.reference;
+		return ref != null && ref.get() != null;
+	}
+
+	public synchronized void pin() throws IOException {
+		if (this.pins == 0)
+			this.pinned = load();
+		this.pins++;
+	}
+
+	public synchronized void release() {
+		if (this.pins == 0)
+			throw new IllegalStateException("Column is not pinned");
+		if (--this.pins == 0)
+			this.pinned = null;
+	}
+
+	boolean isResident() {
+		return false;
+	}
+
+	protected abstract double[] decode() throws IOException;
+
+	public static LazyColumn of(ImmutableDoubleList list) {
+		return new Resident(list);
+	}
+
+	private static final class Resident extends LazyColumn {
+		private final ImmutableDoubleList list;
+
+		public Resident(ImmutableDoubleList list) {
+			this.list = list;
+		}
+
+		@Override
+		public ImmutableDoubleList get() {
+			return this.list;
+		}
+
+		@Override
+		public boolean isLoaded() {
+			return true;
+		}
+
+		@Override
+		public void pin() {}
+
+		@Override
+		public void release() {}
+
+		@Override
+		boolean isResident() {
+			return true;
+		}
+
+		@Override
+		protected double[] decode() {
+			return this.list.toArray();
+		}
+	}
+}
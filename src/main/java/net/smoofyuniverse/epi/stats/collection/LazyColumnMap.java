@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.collection;
+
+import net.smoofyuniverse.epi.util.ImmutableDoubleList;
+
+import java.util.*;
+
+public final class LazyColumnMap extends AbstractMap<String, ImmutableDoubleList> {
+	private final Map<String, LazyColumn> columns;
+
+	public LazyColumnMap(Map<String, LazyColumn> columns) {
+		this.columns = columns;
+	}
+
+	public Optional<LazyColumn> getColumn(String key) {
+		return Optional.ofNullable(this.columns.get(key));
+	}
+
+	public static Optional<LazyColumn> getColumn(Map<String, ImmutableDoubleList> section, String key) {
+		if (section instanceof LazyColumnMap)
+			return ((LazyColumnMap) section).getColumn(key);
+		ImmutableDoubleList list = section.get(key);
+		return list == null ? Optional.empty() : Optional.of(LazyColumn.of(list));
+	}
+
+	@Override
+	public ImmutableDoubleList get(Object key) {
+		LazyColumn c = this.columns.get(key);
+		return c == null ? null : c.get();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return this.columns.containsKey(key);
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return Collections.unmodifiableSet(this.columns.keySet());
+	}
+
+	@Override
+	public int size() {
+		return this.columns.size();
+	}
+
+	@Override
+	public Set<Entry<String, ImmutableDoubleList>> entrySet() {
+		return new AbstractSet<Entry<String, ImmutableDoubleList>>() {
+			@Override
+			public Iterator<Entry<String, ImmutableDoubleList>> iterator() {
+				Iterator<Entry<String, LazyColumn>> it = LazyColumnMap.this.columns.entrySet().iterator();
+				return new Iterator<Entry<String, ImmutableDoubleList>>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public Entry<String, ImmutableDoubleList> next() {
+						Entry<String, LazyColumn> e = it.next();
+						return new LazyEntry(e.getKey(), e.getValue());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return LazyColumnMap.this.columns.size();
+			}
+		};
+	}
+
+	private static final class LazyEntry implements Entry<String, ImmutableDoubleList> {
+		private final String key;
+		private final LazyColumn column;
+
+		public LazyEntry(String key, LazyColumn column) {
+			this.key = key;
+			this.column = column;
+		}
+
+		@Override
+		public String getKey() {
+			return this.key;
+		}
+
+		@Override
+		public ImmutableDoubleList getValue() {
+			return this.column.get();
+		}
+
+		@Override
+		public ImmutableDoubleList setValue(ImmutableDoubleList value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry))
+				return false;
+			Entry<?, ?> e = (Entry<?, ?>) o;
+			return this.key.equals(e.getKey()) && getValue().equals(e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return this.key.hashCode() ^ getValue().hashCode();
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.collection;
+
+import net.smoofyuniverse.epi.stats.collection.SnapshotStore.Snapshot;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.Map.Entry;
+
+public class SnapshotRepository {
+	public static final int SNAPSHOT_CACHE_SIZE = 4, RESULT_CACHE_SIZE = 16;
+
+	public final SnapshotStore store;
+
+	private final Map<Integer, DataCollection> snapshots = new LruMap<>(SNAPSHOT_CACHE_SIZE);
+	private final Map<Key, DataMergeResult> results = new LruMap<>(RESULT_CACHE_SIZE);
+	private final TreeMap<DateKey, Snapshot> byMaxEndDate = new TreeMap<>();
+	private int indexed;
+
+	public SnapshotRepository(SnapshotStore store) {
+		this.store = store;
+	}
+
+	private void index() throws IOException {
+		List<Snapshot> list = this.store.list();
+		for (int i = this.indexed; i < list.size(); i++) {
+			Snapshot s = list.get(i);
+			this.byMaxEndDate.put(new DateKey(s.maxEndDate, s.index), s);
+		}
+		this.indexed = list.size();
+	}
+
+	public synchronized Optional<Snapshot> findEnd(Instant to) throws IOException {
+		index();
+		Entry<DateKey, Snapshot> e = to == null ? this.byMaxEndDate.lastEntry() : this.byMaxEndDate.floorEntry(new DateKey(to, Integer.MAX_VALUE));
+		return e == null ? Optional.empty() : Optional.of(e.getValue());
+	}
+
+	public synchronized Optional<Snapshot> findStart(Instant from, Snapshot end) throws IOException {
+		index();
+		Instant limit = from == null || from.isAfter(end.minEndDate) ? end.minEndDate : from;
+		Entry<DateKey, Snapshot> e = this.byMaxEndDate.floorEntry(new DateKey(limit, Integer.MAX_VALUE));
+		while (e != null && e.getValue().index == end.index)
+			e = this.byMaxEndDate.lowerEntry(e.getKey());
+		return e == null ? Optional.empty() : Optional.of(e.getValue());
+	}
+
+	public synchronized DataCollection get(Snapshot snapshot) throws IOException {
+		DataCollection col = this.snapshots.get(snapshot.index);
+		if (col == null) {
+			col = this.store.read(snapshot.index);
+			this.snapshots.put(snapshot.index, col);
+		}
+		return col;
+	}
+
+	public synchronized Optional<DataMergeResult> query(Collection<UUID> players, Instant from, Instant to, Set<String> sections) throws IOException {
+		Snapshot end = findEnd(to).orElse(null);
+		if (end == null)
+			return Optional.empty();
+
+		Snapshot start = null;
+		if (from != null) {
+			start = findStart(from, end).orElse(null);
+			if (start == null)
+				return Optional.empty();
+		}
+
+		return Optional.of(merge(players, start, end, sections));
+	}
+
+	public synchronized DataMergeResult merge(Collection<UUID> players, Snapshot start, Snapshot end, Set<String> sections) throws IOException {
+		Key key = new Key(start == null ? -1 : start.index, end.index, players, sections);
+		DataMergeResult r = this.results.get(key);
+		if (r == null) {
+			r = DataCollection.merge(players, start == null ? null : get(start), get(end), sections);
+			this.results.put(key, r);
+		}
+		return r;
+	}
+
+	public synchronized Snapshot append(DataCollection col) throws IOException {
+		Snapshot s = this.store.append(col);
+		this.snapshots.put(s.index, col);
+		return s;
+	}
+
+	public synchronized void clearCache() {
+		this.snapshots.clear();
+		this.results.clear();
+	}
+
+	private static final class DateKey implements Comparable<DateKey> {
+		private final Instant date;
+		private final int index;
+
+		public DateKey(Instant date, int index) {
+			this.date = date;
+			this.index = index;
+		}
+
+		@Override
+		public int compareTo(DateKey k) {
+			int c = this.date.compareTo(k.date);
+			return c != 0 ? c : Integer.compare(this.index, k.index);
+		}
+	}
+
+	private static final class Key {
+		private final int start, end;
+		private final long hash;
+		private final long[] players;
+		private final Set<String> sections;
+
+		public Key(int start, int end, Collection<UUID> players, Set<String> sections) {
+			this.start = start;
+			this.end = end;
+			this.players = sorted(players);
+			this.hash = hash(this.players);
+			this.sections = sections == null ? null : new HashSet<>(sections);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return this.start == k.start && this.end == k.end && this.hash == k.hash && Arrays.equals(this.players, k.players) && Objects.equals(this.sections, k.sections);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.start, this.end, this.hash, this.sections);
+		}
+
+		private static long[] sorted(Collection<UUID> players) {
+			UUID[] ids = players.toArray(new UUID[0]);
+			Arrays.sort(ids);
+			long[] array = new long[ids.length * 2];
+			for (int i = 0; i < ids.length; i++) {
+				array[i * 2] = ids[i].getMostSignificantBits();
+				array[i * 2 + 1] = ids[i].getLeastSignificantBits();
+			}
+			return array;
+		}
+
+		private static long hash(long[] players) {
+			long h = 0;
+			for (int i = 0; i < players.length; i += 2) {
+				long v = players[i] * 0x9E3779B97F4A7C15L ^ players[i + 1];
+				v ^= v >>> 31;
+				v *= 0xBF58476D1CE4E5B9L;
+				v ^= v >>> 29;
+				h += v;
+			}
+			return h;
+		}
+	}
+
+	private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		public LruMap(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Entry<K, V> eldest) {
+			return size() > this.maxSize;
+		}
+	}
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.collection;
+
+import net.smoofyuniverse.epi.util.ImmutableDoubleList;
+import net.smoofyuniverse.epi.util.ImmutableList;
+import net.smoofyuniverse.epi.util.ImmutableLongList;
+import net.smoofyuniverse.epi.util.StringColumn;
+import net.smoofyuniverse.epi.util.StringDictionary;
+import net.smoofyuniverse.epi.util.UuidIndex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public class SnapshotStore {
+	public static final int CURRENT_VERSION = 1, MINIMUM_VERSION = 1;
+	public static final int FULL_INTERVAL = 16;
+
+	private static final int HEADER_SIZE = 1 + 8 + 8 + 4 + 4;
+	private static final byte FULL = 0, DELTA = 1;
+
+	public final Path file;
+
+	private List<Snapshot> snapshots;
+	private long end;
+	private DataCollection last;
+
+	public SnapshotStore(Path file) {
+		this.file = file;
+	}
+
+	public synchronized List<Snapshot> list() throws IOException {
+		open();
+		return Collections.unmodifiableList(this.snapshots);
+	}
+
+	public synchronized int size() throws IOException {
+		open();
+		return this.snapshots.size();
+	}
+
+	private void open() throws IOException {
+		if (this.snapshots != null)
+			return;
+
+		List<Snapshot> list = new ArrayList<>();
+		long position = 4;
+
+		if (Files.exists(this.file)) {
+			try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+				long length = channel.size();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+				if (length >= 4) {
+					header.limit(4);
+					readFully(channel, header, 0);
+					int version = header.getInt(0);
+					if (version > CURRENT_VERSION || version < MINIMUM_VERSION)
+						throw new IOException("Invalid format version: " + version);
+				}
+
+				while (position + HEADER_SIZE <= length) {
+					header.clear();
+					readFully(channel, header, position);
+					header.flip();
+
+					boolean full = header.get() == FULL;
+					long minEnd = header.getLong(), maxEnd = header.getLong();
+					int size = header.getInt(), payload = header.getInt();
+					if (payload < 0 || position + HEADER_SIZE + payload > length)
+						break;
+
+					list.add(new Snapshot(list.size(), full, Instant.ofEpochMilli(minEnd), Instant.ofEpochMilli(maxEnd), size, position + HEADER_SIZE, payload));
+					position += HEADER_SIZE + payload;
+				}
+			}
+		}
+
+		this.snapshots = list;
+		this.end = position;
+	}
+
+	public synchronized DataCollection read(int index) throws IOException {
+		open();
+		if (index < 0 || index >= this.snapshots.size())
+			throw new IndexOutOfBoundsException("Index: " + index);
+		if (index == this.snapshots.size() - 1 && this.last != null)
+			return this.last;
+
+		int base = index;
+		while (!this.snapshots.get(base).full)
+			base--;
+
+		try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+			DataCollection col = null;
+			for (int i = base; i <= index; i++) {
+				Snapshot s = this.snapshots.get(i);
+				try (DataInputStream in = payload(channel, s)) {
+					col = s.full ? DataCollection.deserialize(in, 4, true, true) : applyDelta(col, in);
+				}
+			}
+
+			if (index == this.snapshots.size() - 1)
+				this.last = col;
+			return col;
+		}
+	}
+
+	public synchronized Snapshot append(DataCollection col) throws IOException {
+		if (col.containsIntervals)
+			throw new IllegalArgumentException("Intervals");
+		if (col.size == 0)
+			throw new IllegalArgumentException("Empty collection");
+
+		open();
+		int count = this.snapshots.size();
+		DataCollection previous = count == 0 ? null : read(count - 1);
+		boolean full = previous == null || count % FULL_INTERVAL == 0;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(bytes)))) {
+			if (full)
+				col.serialize(out, true, true);
+			else
+				writeDelta(previous, col, out);
+		}
+
+		byte[] payload = bytes.toByteArray();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		buffer.put(full ? FULL : DELTA);
+		buffer.putLong(col.endDates.min());
+		buffer.putLong(col.endDates.max());
+		buffer.putInt(col.size);
+		buffer.putInt(payload.length);
+		buffer.put(payload);
+		buffer.flip();
+
+		try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			if (this.end == 4 && channel.size() < 4) {
+				ByteBuffer version = ByteBuffer.allocate(4);
+				version.putInt(0, CURRENT_VERSION);
+				writeFully(channel, version, 0);
+			}
+			channel.truncate(this.end);
+			writeFully(channel, buffer, this.end);
+			channel.force(false);
+		}
+
+		Snapshot s = new Snapshot(count, full, col.minEndDate, col.maxEndDate, col.size, this.end + HEADER_SIZE, payload.length);
+		this.snapshots.add(s);
+		this.end += HEADER_SIZE + payload.length;
+		this.last = col;
+		return s;
+	}
+
+	private static void writeDelta(DataCollection previous, DataCollection col, DataOutputStream out) throws IOException {
+		int size = col.size;
+		int[] rows = new int[size];
+		int added = 0;
+		for (int i = 0; i < size; i++) {
+			UUID id = col.ids.get(i);
+			int row = previous.index.get(id);
+			rows[i] = row;
+			if (row == -1)
+				added++;
+		}
+
+		out.writeInt(size);
+		out.writeInt(added);
+		for (int row : rows)
+			out.writeInt(row);
+		for (int i = 0; i < size; i++) {
+			if (rows[i] == -1) {
+				UUID id = col.ids.get(i);
+				out.writeLong(id.getMostSignificantBits());
+				out.writeLong(id.getLeastSignificantBits());
+			}
+		}
+
+		long[] changed = new long[(size + 63) >> 6];
+		for (int i = 0; i < size; i++) {
+			if (rows[i] == -1 || !Objects.equals(col.names.get(i), previous.names.get(rows[i])))
+				changed[i >> 6] |= 1L << i;
+		}
+		writeBitmap(changed, out);
+		for (int i = 0; i < size; i++) {
+			if ((changed[i >> 6] & (1L << i)) != 0)
+				out.writeUTF(col.names.get(i));
+		}
+
+		Arrays.fill(changed, 0);
+		for (int i = 0; i < size; i++) {
+			if (rows[i] == -1 || !Objects.equals(col.guilds.get(i), previous.guilds.get(rows[i])))
+				changed[i >> 6] |= 1L << i;
+		}
+		writeBitmap(changed, out);
+		for (int i = 0; i < size; i++) {
+			if ((changed[i >> 6] & (1L << i)) != 0) {
+				String guild = col.guilds.get(i);
+				out.writeUTF(guild == null ? "" : guild);
+			}
+		}
+
+		Arrays.fill(changed, 0);
+		for (int i = 0; i < size; i++) {
+			if (rows[i] == -1 || col.endDates.get(i) != previous.endDates.get(rows[i]))
+				changed[i >> 6] |= 1L << i;
+		}
+		writeBitmap(changed, out);
+		for (int i = 0; i < size; i++) {
+			if ((changed[i >> 6] & (1L << i)) != 0)
+				out.writeLong(col.endDates.get(i));
+		}
+
+		out.writeInt(col.stats.size());
+		for (Entry<String, Map<String, ImmutableDoubleList>> e : col.stats.entrySet()) {
+			Map<String, ImmutableDoubleList> previousSection = previous.stats.get(e.getKey());
+			out.writeUTF(e.getKey());
+			out.writeInt(e.getValue().size());
+			for (Entry<String, ImmutableDoubleList> stat : e.getValue().entrySet()) {
+				ImmutableDoubleList list = stat.getValue(), previousList = previousSection == null ? null : previousSection.get(stat.getKey());
+				out.writeUTF(stat.getKey());
+
+				if (previousList == null) {
+					out.writeByte(FULL);
+					for (int i = 0; i < size; i++)
+						out.writeDouble(list.get(i));
+					continue;
+				}
+
+				Arrays.fill(changed, 0);
+				for (int i = 0; i < size; i++) {
+					if (rows[i] == -1 || Double.doubleToLongBits(list.get(i)) != Double.doubleToLongBits(previousList.get(rows[i])))
+						changed[i >> 6] |= 1L << i;
+				}
+
+				out.writeByte(DELTA);
+				writeBitmap(changed, out);
+				for (int i = 0; i < size; i++) {
+					if ((changed[i >> 6] & (1L << i)) != 0)
+						out.writeDouble(list.get(i));
+				}
+			}
+		}
+	}
+
+	private static DataCollection applyDelta(DataCollection previous, DataInputStream in) throws IOException {
+		int size = in.readInt();
+		int added = in.readInt();
+		int[] rows = new int[size];
+		for (int i = 0; i < size; i++) {
+			int row = in.readInt();
+			if (row < -1 || row >= previous.size)
+				throw new IOException("Invalid row: " + row);
+			rows[i] = row;
+		}
+
+		UuidIndex index = new UuidIndex(size);
+		UUID[] ids = new UUID[size];
+		for (int i = 0; i < size; i++) {
+			UUID id = rows[i] == -1 ? new UUID(in.readLong(), in.readLong()) : previous.ids.get(rows[i]);
+			ids[i] = id;
+			index.put(id, i);
+		}
+		if (index.size() != size || added < 0)
+			throw new IOException("Invalid player list");
+
+		StringDictionary dictionary = previous.names.getDictionary();
+		long[] changed = readBitmap(in, size);
+		int[] names = new int[size];
+		for (int i = 0; i < size; i++)
+			names[i] = (changed[i >> 6] & (1L << i)) != 0 ? dictionary.code(in.readUTF()) : previous.names.getCode(rows[i]);
+
+		changed = readBitmap(in, size);
+		int[] guilds = new int[size];
+		for (int i = 0; i < size; i++) {
+			if ((changed[i >> 6] & (1L << i)) != 0) {
+				String g = in.readUTF();
+				guilds[i] = g.isEmpty() ? -1 : dictionary.code(g);
+			} else
+				guilds[i] = previous.guilds.getCode(rows[i]);
+		}
+
+		changed = readBitmap(in, size);
+		long[] endDates = new long[size];
+		for (int i = 0; i < size; i++)
+			endDates[i] = (changed[i >> 6] & (1L << i)) != 0 ? in.readLong() : previous.endDates.get(rows[i]);
+
+		Map<String, Map<String, ImmutableDoubleList>> stats = new HashMap<>();
+		int maps = in.readInt();
+		for (int j = 0; j < maps; j++) {
+			String key = in.readUTF();
+			Map<String, ImmutableDoubleList> previousSection = previous.stats.get(key);
+			int count = in.readInt();
+			Map<String, ImmutableDoubleList> map = new HashMap<>();
+			for (int y = 0; y < count; y++) {
+				String stat = in.readUTF();
+				double[] values = new double[size];
+
+				byte mode = in.readByte();
+				if (mode == FULL) {
+					for (int i = 0; i < size; i++)
+						values[i] = in.readDouble();
+				} else if (mode == DELTA) {
+					ImmutableDoubleList previousList = previousSection == null ? null : previousSection.get(stat);
+					if (previousList == null)
+						throw new IOException("Missing base column: " + key + "." + stat);
+
+					changed = readBitmap(in, size);
+					for (int i = 0; i < size; i++)
+						values[i] = (changed[i >> 6] & (1L << i)) != 0 ? in.readDouble() : previousList.get(rows[i]);
+				} else
+					throw new IOException("Unknown column mode: " + mode);
+
+				map.put(stat, ImmutableDoubleList.of(values));
+			}
+			stats.put(key, Collections.unmodifiableMap(map));
+		}
+
+		return new DataCollection(index, Collections.unmodifiableMap(stats), ImmutableList.of(ids), StringColumn.of(dictionary, names),
+				StringColumn.of(dictionary, guilds), null, ImmutableLongList.of(endDates), size);
+	}
+
+	private static void writeBitmap(long[] bitmap, DataOutputStream out) throws IOException {
+		for (long word : bitmap)
+			out.writeLong(word);
+	}
+
+	private static long[] readBitmap(DataInputStream in, int size) throws IOException {
+		long[] bitmap = new long[(size + 63) >> 6];
+		for (int i = 0; i < bitmap.length; i++)
+			bitmap[i] = in.readLong();
+		return bitmap;
+	}
+
+	private static DataInputStream payload(FileChannel channel, Snapshot s) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(s.length);
+		readFully(channel, buffer, s.offset);
+		return new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(buffer.array()))));
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new EOFException();
+			position += n;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	public static final class Snapshot {
+		public final int index;
+		public final boolean full;
+		public final Instant minEndDate, maxEndDate;
+		public final int size;
+
+		private final long offset;
+		private final int length;
+
+		private Snapshot(int index, boolean full, Instant minEndDate, Instant maxEndDate, int size, long offset, int length) {
+			this.index = index;
+			this.full = full;
+			this.minEndDate = minEndDate;
+			this.maxEndDate = maxEndDate;
+			this.size = size;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
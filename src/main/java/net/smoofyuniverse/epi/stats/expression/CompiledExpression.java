@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.expression;
+
+import net.smoofyuniverse.epi.stats.ranking.Ranking;
+import net.smoofyuniverse.epi.stats.ranking.RankingList;
+import org.mariuszgromada.math.mxparser.mXparser;
+import org.mariuszgromada.math.mxparser.mathcollection.BinaryRelations;
+import org.mariuszgromada.math.mxparser.mathcollection.BooleanAlgebra;
+import org.mariuszgromada.math.mxparser.mathcollection.MathFunctions;
+import org.mariuszgromada.math.mxparser.mathcollection.NumberTheory;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.DoubleBinaryOperator;
+
+public abstract class CompiledExpression {
+	public static final int BLOCK_SIZE = 4096;
+
+	private double[] buffer;
+
+	public abstract double evaluate(int p);
+
+	public abstract void evaluate(int start, double[] out, int offset, int length);
+
+	protected final double[] buffer(int length) {
+		if (this.buffer == null || this.buffer.length < length)
+			this.buffer = new double[length];
+		return this.buffer;
+	}
+
+	// Same as mXparser, which rounds the result of arithmetic operators to their precision
+	static double round(double value) {
+		if (!mXparser.checkIfUlpRounding() || Double.isNaN(value) || Double.isInfinite(value))
+			return value;
+		int digits = MathFunctions.ulpDecimalDigitsBefore(value);
+		return digits >= 0 ? MathFunctions.round(value, digits) : value;
+	}
+
+	public static Optional<CompiledExpression> compile(String expression, RankingList list) {
+		try {
+			return Optional.of(new Result(new ExpressionParser(expression, list).parse()));
+		} catch (IllegalArgumentException e) {
+			return Optional.empty();
+		}
+	}
+
+	// Same as mXparser, which rounds the final result when it is almost an integer
+	static final class Result extends CompiledExpression {
+		private final CompiledExpression expression;
+
+		Result(CompiledExpression expression) {
+			this.expression = expression;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			return round(this.expression.evaluate(p), BinaryRelations.getEpsilon());
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			double epsilon = BinaryRelations.getEpsilon();
+			this.expression.evaluate(start, out, offset, length);
+			for (int i = offset, end = offset + length; i < end; i++)
+				out[i] = round(out[i], epsilon);
+		}
+
+		private static double round(double value, double epsilon) {
+			double integer = Math.round(value);
+			return Math.abs(value - integer) <= epsilon ? integer : value;
+		}
+	}
+
+	static final class Constant extends CompiledExpression {
+		private final double value;
+
+		Constant(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			return this.value;
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			Arrays.fill(out, offset, offset + length, this.value);
+		}
+	}
+
+	static final class Value extends CompiledExpression {
+		private final Ranking ranking;
+
+		Value(Ranking ranking) {
+			this.ranking = ranking;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			return this.ranking.getValue(p);
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			for (int i = 0; i < length; i++)
+				out[offset + i] = this.ranking.getValue(start + i);
+		}
+	}
+
+	static final class Rank extends CompiledExpression {
+		private final Ranking ranking;
+
+		Rank(Ranking ranking) {
+			this.ranking = ranking;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			int rank = this.ranking.getRank(p);
+			return rank == -1 ? Double.NaN : rank + 1;
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			for (int i = 0; i < length; i++) {
+				int rank = this.ranking.getRank(start + i);
+				out[offset + i] = rank == -1 ? Double.NaN : rank + 1;
+			}
+		}
+	}
+
+	static final class Total extends CompiledExpression {
+		private final Ranking[] rankings;
+
+		Total(Ranking[] rankings) {
+			this.rankings = rankings;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			double total = 0;
+			for (Ranking r : this.rankings)
+				total += r.getValue(p);
+			return total;
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			Arrays.fill(out, offset, offset + length, 0);
+			for (Ranking r : this.rankings) {
+				for (int i = 0; i < length; i++)
+					out[offset + i] += r.getValue(start + i);
+			}
+		}
+	}
+
+	static final class Negate extends CompiledExpression {
+		private final CompiledExpression operand;
+
+		Negate(CompiledExpression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			return -this.operand.evaluate(p);
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			this.operand.evaluate(start, out, offset, length);
+			for (int i = offset, end = offset + length; i < end; i++)
+				out[i] = -out[i];
+		}
+	}
+
+	static final class Not extends CompiledExpression {
+		private final CompiledExpression operand;
+
+		Not(CompiledExpression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			return BooleanAlgebra.not(this.operand.evaluate(p));
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			this.operand.evaluate(start, out, offset, length);
+			for (int i = offset, end = offset + length; i < end; i++)
+				out[i] = BooleanAlgebra.not(out[i]);
+		}
+	}
+
+	static final class Abs extends CompiledExpression {
+		private final CompiledExpression operand;
+
+		Abs(CompiledExpression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			return MathFunctions.abs(this.operand.evaluate(p));
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			this.operand.evaluate(start, out, offset, length);
+			for (int i = offset, end = offset + length; i < end; i++)
+				out[i] = MathFunctions.abs(out[i]);
+		}
+	}
+
+	static final class Binary extends CompiledExpression {
+		static final DoubleBinaryOperator ADD = (a, b) -> round(a + b), SUBTRACT = (a, b) -> round(a - b), MULTIPLY = (a, b) -> round(a * b),
+				DIVIDE = (a, b) -> round(MathFunctions.div(a, b)), POWER = (a, b) -> round(MathFunctions.power(a, b)), MIN = NumberTheory::min, MAX = NumberTheory::max,
+				EQUAL = BinaryRelations::eq, NOT_EQUAL = BinaryRelations::neq, LOWER = BinaryRelations::lt, GREATER = BinaryRelations::gt,
+				LOWER_OR_EQUAL = BinaryRelations::leq, GREATER_OR_EQUAL = BinaryRelations::geq, AND = BooleanAlgebra::and, OR = BooleanAlgebra::or;
+
+		private final DoubleBinaryOperator operator;
+		private final CompiledExpression left, right;
+
+		Binary(DoubleBinaryOperator operator, CompiledExpression left, CompiledExpression right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public double evaluate(int p) {
+			return this.operator.applyAsDouble(this.left.evaluate(p), this.right.evaluate(p));
+		}
+
+		@Override
+		public void evaluate(int start, double[] out, int offset, int length) {
+			double[] right = buffer(length);
+			this.left.evaluate(start, out, offset, length);
+			this.right.evaluate(start, right, 0, length);
+			for (int i = 0; i < length; i++)
+				out[offset + i] = this.operator.applyAsDouble(out[offset + i], right[i]);
+		}
+	}
+}
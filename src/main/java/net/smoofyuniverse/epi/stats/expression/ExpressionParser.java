@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.expression;
+
+import net.smoofyuniverse.epi.stats.expression.CompiledExpression.*;
+import net.smoofyuniverse.epi.stats.ranking.Ranking;
+import net.smoofyuniverse.epi.stats.ranking.RankingList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class ExpressionParser {
+	private static final int NUMBER = 0, NAME = 1, SYMBOL = 2;
+
+	private final RankingList list;
+	private final List<String> tokens = new ArrayList<>();
+	private final List<Integer> types = new ArrayList<>();
+	private int index;
+
+	ExpressionParser(String expression, RankingList list) {
+		this.list = list;
+		tokenize(expression);
+	}
+
+	// Operators are evaluated by mXparser in this order, from the weakest to the strongest.
+	// Operators on the same level are applied from left to right, except the power which is right associative.
+	CompiledExpression parse() {
+		CompiledExpression e = parseBoolean();
+		if (this.index != this.tokens.size())
+			throw new IllegalArgumentException("Unexpected token: " + this.tokens.get(this.index));
+		return e;
+	}
+
+	private CompiledExpression parseBoolean() {
+		CompiledExpression e = parseGreaterOrEqual();
+		while (true) {
+			if (accept("&") || accept("&&"))
+				e = new Binary(Binary.AND, e, parseGreaterOrEqual());
+			else if (accept("|") || accept("||"))
+				e = new Binary(Binary.OR, e, parseGreaterOrEqual());
+			else
+				return e;
+		}
+	}
+
+	private CompiledExpression parseGreaterOrEqual() {
+		CompiledExpression e = parseLowerOrEqual();
+		while (accept(">="))
+			e = new Binary(Binary.GREATER_OR_EQUAL, e, parseLowerOrEqual());
+		return e;
+	}
+
+	private CompiledExpression parseLowerOrEqual() {
+		CompiledExpression e = parseGreater();
+		while (accept("<="))
+			e = new Binary(Binary.LOWER_OR_EQUAL, e, parseGreater());
+		return e;
+	}
+
+	private CompiledExpression parseGreater() {
+		CompiledExpression e = parseLower();
+		while (accept(">"))
+			e = new Binary(Binary.GREATER, e, parseLower());
+		return e;
+	}
+
+	private CompiledExpression parseLower() {
+		CompiledExpression e = parseEqual();
+		while (accept("<"))
+			e = new Binary(Binary.LOWER, e, parseEqual());
+		return e;
+	}
+
+	private CompiledExpression parseEqual() {
+		CompiledExpression e = parseNotEqual();
+		while (accept("=") || accept("=="))
+			e = new Binary(Binary.EQUAL, e, parseNotEqual());
+		return e;
+	}
+
+	private CompiledExpression parseNotEqual() {
+		CompiledExpression e = parseAdditive();
+		while (accept("<>") || accept("~=") || accept("!="))
+			e = new Binary(Binary.NOT_EQUAL, e, parseAdditive());
+		return e;
+	}
+
+	private CompiledExpression parseAdditive() {
+		CompiledExpression e = parseMultiplicative();
+		while (true) {
+			if (accept("+"))
+				e = new Binary(Binary.ADD, e, parseMultiplicative());
+			else if (accept("-"))
+				e = new Binary(Binary.SUBTRACT, e, parseMultiplicative());
+			else
+				return e;
+		}
+	}
+
+	private CompiledExpression parseMultiplicative() {
+		CompiledExpression e = parseUnary();
+		while (true) {
+			if (accept("*"))
+				e = new Binary(Binary.MULTIPLY, e, parseUnary());
+			else if (accept("/"))
+				e = new Binary(Binary.DIVIDE, e, parseUnary());
+			else
+				return e;
+		}
+	}
+
+	private CompiledExpression parseUnary() {
+		if (!peek("~") && !peek("+") && !peek("-"))
+			return parsePower();
+
+		// mXparser only reads unary operators consistently at the start of an expression or after a parenthesis
+		if (this.index != 0 && !this.tokens.get(this.index - 1).equals("("))
+			throw new IllegalArgumentException("Unsupported unary operator");
+
+		if (accept("~"))
+			return new Not(parsePower());
+		if (accept("+"))
+			return parsePower();
+
+		this.index++;
+		// mXparser reads a minus directly followed by a number as a negative number, so that -2^2 is 4
+		if (this.index < this.tokens.size() && this.types.get(this.index) == NUMBER)
+			return parsePower(new Constant(-Double.parseDouble(this.tokens.get(this.index++))));
+		return new Negate(parsePower());
+	}
+
+	private CompiledExpression parsePower() {
+		return parsePower(parsePrimary());
+	}
+
+	private CompiledExpression parsePower(CompiledExpression e) {
+		if (accept("^"))
+			return new Binary(Binary.POWER, e, parseUnary());
+		return e;
+	}
+
+	private CompiledExpression parsePrimary() {
+		if (this.index >= this.tokens.size())
+			throw new IllegalArgumentException("Unexpected end");
+
+		String token = this.tokens.get(this.index);
+		int type = this.types.get(this.index);
+		this.index++;
+
+		if (type == NUMBER)
+			return new Constant(Double.parseDouble(token));
+
+		if (type == NAME) {
+			if (accept("("))
+				return parseFunction(token);
+			return bind(token);
+		}
+
+		if (token.equals("(")) {
+			CompiledExpression e = parseBoolean();
+			expect(")");
+			return e;
+		}
+
+		throw new IllegalArgumentException("Unexpected token: " + token);
+	}
+
+	private CompiledExpression parseFunction(String name) {
+		List<CompiledExpression> args = new ArrayList<>();
+		args.add(parseBoolean());
+		while (accept(","))
+			args.add(parseBoolean());
+		expect(")");
+
+		switch (name) {
+			case "abs":
+				if (args.size() == 1)
+					return new Abs(args.get(0));
+				break;
+			case "min": {
+				CompiledExpression e = args.get(0);
+				for (int i = 1; i < args.size(); i++)
+					e = new Binary(Binary.MIN, e, args.get(i));
+				return e;
+			}
+			case "max": {
+				CompiledExpression e = args.get(0);
+				for (int i = 1; i < args.size(); i++)
+					e = new Binary(Binary.MAX, e, args.get(i));
+				return e;
+			}
+		}
+
+		throw new IllegalArgumentException("Unsupported function: " + name);
+	}
+
+	private CompiledExpression bind(String name) {
+		Ranking r = this.list.get(name).orElse(null);
+		if (r != null)
+			return new Value(r);
+
+		if (name.startsWith("rank_")) {
+			r = this.list.get(name.substring(5)).orElse(null);
+			if (r != null) {
+				r.list();
+				return new Rank(r);
+			}
+		}
+
+		if (name.startsWith("total_")) {
+			String extension = name.substring(6);
+			List<Ranking> l = this.list.list(s -> {
+				int i = s.indexOf('_');
+				return i != -1 && s.substring(i + 1).equals(extension);
+			});
+			return new Total(l.toArray(new Ranking[0]));
+		}
+
+		throw new IllegalArgumentException("Unknown argument: " + name);
+	}
+
+	private boolean peek(String symbol) {
+		return this.index < this.tokens.size() && this.types.get(this.index) == SYMBOL && this.tokens.get(this.index).equals(symbol);
+	}
+
+	private boolean accept(String symbol) {
+		if (peek(symbol)) {
+			this.index++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(String symbol) {
+		if (!accept(symbol))
+			throw new IllegalArgumentException("Expected: " + symbol);
+	}
+
+	private void tokenize(String s) {
+		int length = s.length(), i = 0;
+		while (i < length) {
+			char c = s.charAt(i);
+
+			if (Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+
+			if (isDigit(c)) {
+				int start = i;
+				while (i < length && isDigit(s.charAt(i)))
+					i++;
+				if (i < length && s.charAt(i) == '.') {
+					i++;
+					if (i >= length || !isDigit(s.charAt(i)))
+						throw new IllegalArgumentException("Invalid number");
+					while (i < length && isDigit(s.charAt(i)))
+						i++;
+				}
+				if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+					i++;
+					if (i < length && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+						i++;
+					if (i >= length || !isDigit(s.charAt(i)))
+						throw new IllegalArgumentException("Invalid number");
+					while (i < length && isDigit(s.charAt(i)))
+						i++;
+				}
+				if (i < length && isNameChar(s.charAt(i)))
+					throw new IllegalArgumentException("Invalid number");
+				add(s.substring(start, i), NUMBER);
+				continue;
+			}
+
+			if (isNameChar(c)) {
+				int start = i;
+				while (i < length && isNameChar(s.charAt(i)))
+					i++;
+				add(s.substring(start, i), NAME);
+				continue;
+			}
+
+			char next = i + 1 < length ? s.charAt(i + 1) : 0;
+			String symbol;
+			switch (c) {
+				case '+':
+				case '*':
+				case '^':
+				case '(':
+				case ')':
+				case ',':
+					symbol = String.valueOf(c);
+					break;
+				case '-':
+					if (next == '-' || next == '/')
+						throw new IllegalArgumentException("Unsupported operator");
+					symbol = "-";
+					break;
+				case '/':
+					if (next == '\\')
+						throw new IllegalArgumentException("Unsupported operator");
+					symbol = "/";
+					break;
+				case '~':
+					if (next == '&' || next == '|' || next == '/' || next == '\\')
+						throw new IllegalArgumentException("Unsupported operator");
+					symbol = next == '=' ? "~=" : "~";
+					break;
+				case '!':
+					if (next != '=')
+						throw new IllegalArgumentException("Unsupported operator");
+					symbol = "!=";
+					break;
+				case '=':
+					symbol = next == '=' ? "==" : "=";
+					break;
+				case '<':
+					if (next == '-' || next == '/')
+						throw new IllegalArgumentException("Unsupported operator");
+					symbol = next == '=' ? "<=" : next == '>' ? "<>" : "<";
+					break;
+				case '>':
+					symbol = next == '=' ? ">=" : ">";
+					break;
+				case '&':
+					symbol = next == '&' ? "&&" : "&";
+					break;
+				case '|':
+					symbol = next == '|' ? "||" : "|";
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported character: " + c);
+			}
+			add(symbol, SYMBOL);
+			i += symbol.length();
+		}
+	}
+
+	private void add(String token, int type) {
+		this.tokens.add(token);
+		this.types.add(type);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isNameChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+}
@@ -26,6 +26,7 @@ import net.smoofyuniverse.common.app.App;
 import net.smoofyuniverse.common.task.ProgressTask;
 import net.smoofyuniverse.epi.stats.ranking.Ranking;
 import net.smoofyuniverse.epi.stats.ranking.RankingList;
+import net.smoofyuniverse.epi.util.IntIterator;
 import net.smoofyuniverse.logger.core.Logger;
 
 import java.util.List;
@@ -58,7 +59,10 @@ public class DebugOperation implements RankingOperation {
 	public static void debug(Ranking r) {
 		logger.debug("Catégorie: " + r.name);
 		int i = 1;
-		for (int p : r.list())
+		IntIterator it = r.list().iterator();
+		while (it.hasNext()) {
+			int p = it.next();
 			logger.debug(i++ + " - " + r.parent.collection.names.get(p) + ": " + r.getValue(p));
+		}
 	}
 }
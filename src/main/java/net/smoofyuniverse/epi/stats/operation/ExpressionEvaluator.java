@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.operation;
+
+import net.smoofyuniverse.common.task.ProgressTask;
+import net.smoofyuniverse.epi.stats.expression.CompiledExpression;
+import net.smoofyuniverse.epi.stats.ranking.RankingList;
+import org.mariuszgromada.math.mxparser.Expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class ExpressionEvaluator {
+	public static final int MIN_CHUNK_SIZE = CompiledExpression.BLOCK_SIZE * 4;
+
+	private final RankingList list;
+	private final String expression;
+	private final boolean compiled;
+
+	public ExpressionEvaluator(RankingList list, Expression expression) {
+		this.list = list;
+		this.expression = expression.getExpressionString();
+		// Compiling once on this thread also builds the rank indexes before any worker reads them
+		this.compiled = CompiledExpression.compile(this.expression, list).isPresent();
+	}
+
+	public boolean evaluate(ProgressTask task, BlockConsumer consumer) {
+		int total = this.list.collection.size;
+		int chunks = Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, total / MIN_CHUNK_SIZE);
+		if (chunks <= 1) {
+			new Chunk(0, total, total, task, new AtomicInteger(), consumer).compute();
+		} else {
+			// Chunks are aligned on blocks so that they never share a word of a bit mask
+			int chunkSize = (total / chunks + CompiledExpression.BLOCK_SIZE - 1) / CompiledExpression.BLOCK_SIZE * CompiledExpression.BLOCK_SIZE;
+			AtomicInteger progress = new AtomicInteger();
+
+			List<Chunk> l = new ArrayList<>();
+			for (int start = 0; start < total; start += chunkSize)
+				l.add(new Chunk(start, Math.min(start + chunkSize, total), total, task, progress, consumer));
+
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(l);
+				}
+			});
+		}
+		return !task.isCancelled();
+	}
+
+	private PlayerEvaluator newEvaluator() {
+		if (this.compiled) {
+			CompiledExpression e = CompiledExpression.compile(this.expression, this.list).get();
+			return e::evaluate;
+		}
+
+		AtomicInteger p = new AtomicInteger();
+		Expression e = new Expression(this.expression);
+		e.addArguments(this.list.getArguments(this.expression, p));
+		return (start, out, offset, length) -> {
+			for (int i = 0; i < length; i++) {
+				p.set(start + i);
+				out[offset + i] = e.calculate();
+			}
+		};
+	}
+
+	public interface BlockConsumer {
+		void accept(int start, double[] values, int length);
+	}
+
+	private interface PlayerEvaluator {
+		void evaluate(int start, double[] out, int offset, int length);
+	}
+
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int start, end, total;
+		private final ProgressTask task;
+		private final AtomicInteger progress;
+		private final BlockConsumer consumer;
+
+		public Chunk(int start, int end, int total, ProgressTask task, AtomicInteger progress, BlockConsumer consumer) {
+			this.start = start;
+			this.end = end;
+			this.total = total;
+			this.task = task;
+			this.progress = progress;
+			this.consumer = consumer;
+		}
+
+		@Override
+		protected void compute() {
+			PlayerEvaluator evaluator = newEvaluator();
+			double[] values = new double[Math.min(CompiledExpression.BLOCK_SIZE, this.end - this.start)];
+
+			for (int i = this.start; i < this.end; i += CompiledExpression.BLOCK_SIZE) {
+				if (this.task.isCancelled())
+					return;
+
+				int length = Math.min(CompiledExpression.BLOCK_SIZE, this.end - i);
+				evaluator.evaluate(i, values, 0, length);
+				this.consumer.accept(i, values, length);
+				this.task.setProgress(this.progress.addAndGet(length) / (double) this.total);
+			}
+		}
+	}
+}
@@ -27,6 +27,7 @@ import net.smoofyuniverse.epi.stats.ranking.Ranking;
 import net.smoofyuniverse.epi.stats.ranking.RankingList;
 import org.mariuszgromada.math.mxparser.Expression;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
@@ -47,10 +48,8 @@ public class FilterOperation implements RankingOperation {
 		task.setTitle("Filtrage des catégories ..");
 		task.setProgress(0);
 
-		AtomicInteger p = new AtomicInteger();
-
 		this.expression.removeAllArguments();
-		this.expression.addArguments(list.getArguments(this.expression.getExpressionString(), p));
+		this.expression.addArguments(list.getArguments(this.expression.getExpressionString(), new AtomicInteger()));
 
 		if (!this.expression.checkSyntax())
 			throw new OperationException(this.expression.getErrorMessage());
@@ -59,19 +58,20 @@ public class FilterOperation implements RankingOperation {
 		if (l.isEmpty())
 			return;
 
-		int total = list.collection.size;
-		for (int i = 0; i < total; i++) {
-			if (task.isCancelled())
-				return;
-
-			task.setMessage("Joueur: " + list.collection.names.get(i));
-			p.set(i);
-
-			if (this.expression.calculate() == 0d) {
-				for (Ranking r : l)
-					r.remove(i);
+		long[] removed = new long[(list.collection.size + 63) >> 6];
+		boolean done = new ExpressionEvaluator(list, this.expression).evaluate(task, (start, values, length) -> {
+			for (int i = 0; i < length; i++) {
+				if (values[i] == 0d) {
+					int p = start + i;
+					removed[p >> 6] |= 1L << p;
+				}
 			}
-			task.setProgress(i / (double) total);
+		});
+
+		if (done) {
+			BitSet mask = BitSet.valueOf(removed);
+			for (Ranking r : l)
+				r.remove(mask);
 		}
 	}
 }
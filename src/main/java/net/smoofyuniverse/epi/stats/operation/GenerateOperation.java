@@ -25,6 +25,7 @@ package net.smoofyuniverse.epi.stats.operation;
 import net.smoofyuniverse.common.task.ProgressTask;
 import net.smoofyuniverse.epi.stats.ranking.Ranking;
 import net.smoofyuniverse.epi.stats.ranking.RankingList;
+import net.smoofyuniverse.epi.util.ImmutableDoubleList;
 import org.mariuszgromada.math.mxparser.Expression;
 
 import java.util.concurrent.atomic.AtomicInteger;
@@ -45,26 +46,16 @@ public class GenerateOperation implements RankingOperation {
 		task.setTitle("Génération de la catégorie '" + this.category + "' ..");
 		task.setProgress(0);
 
-		AtomicInteger p = new AtomicInteger();
-
 		this.expression.removeAllArguments();
-		this.expression.addArguments(list.getArguments(this.expression.getExpressionString(), p));
+		this.expression.addArguments(list.getArguments(this.expression.getExpressionString(), new AtomicInteger()));
 
 		if (!this.expression.checkSyntax())
 			throw new OperationException(this.expression.getErrorMessage());
 		
 		Ranking r = list.getOrCreate(this.category);
+		double[] values = new double[list.collection.size];
 
-		int total = list.collection.size;
-		for (int i = 0; i < total; i++) {
-			if (task.isCancelled())
-				return;
-
-			task.setMessage("Joueur: " + list.collection.names.get(i));
-			p.set(i);
-
-			r.put(i, this.expression.calculate());
-			task.setProgress(i / (double) total);
-		}
+		if (new ExpressionEvaluator(list, this.expression).evaluate(task, (start, v, length) -> System.arraycopy(v, 0, values, start, length)))
+			r.set(ImmutableDoubleList.of(values));
 	}
 }
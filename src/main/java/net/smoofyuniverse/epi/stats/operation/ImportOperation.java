@@ -26,6 +26,7 @@ import net.smoofyuniverse.common.task.ProgressTask;
 import net.smoofyuniverse.epi.stats.ranking.RankingList;
 import net.smoofyuniverse.epi.util.ImmutableDoubleList;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -37,7 +38,7 @@ public class ImportOperation implements RankingOperation {
 	}
 
 	@Override
-	public void accept(RankingList list, ProgressTask task) {
+	public void accept(RankingList list, ProgressTask task) throws OperationException {
 		boolean all = this.category.equals("*");
 
 		task.setTitle(all ? "Importation de toutes les catégories .." : "Importation de la catégorie '" + this.category + "' ..");
@@ -45,32 +46,53 @@ public class ImportOperation implements RankingOperation {
 
 		Map<String, Map<String, ImmutableDoubleList>> stats = list.collection.stats;
 		if (all) {
-			for (Entry<String, Map<String, ImmutableDoubleList>> section : stats.entrySet()) {
-				if (task.isCancelled())
-					return;
+			load(list, null);
+			try {
+				for (Entry<String, Map<String, ImmutableDoubleList>> section : stats.entrySet()) {
+					if (task.isCancelled())
+						return;
 
-				String category = section.getKey();
-				int total = section.getValue().size(), i = 0;
-				for (Entry<String, ImmutableDoubleList> e : section.getValue().entrySet()) {
-					String key = e.getKey();
-					String name = category + "_" + (key.startsWith("stat_") ? key.substring(5) : key);
-					task.setMessage("Catégorie: " + name);
-					list.getOrCreate(name).set(e.getValue());
-					task.setProgress(++i / (double) total);
+					String category = section.getKey();
+					int total = section.getValue().size(), i = 0;
+					for (Entry<String, ImmutableDoubleList> e : section.getValue().entrySet()) {
+						String key = e.getKey();
+						String name = category + "_" + (key.startsWith("stat_") ? key.substring(5) : key);
+						task.setMessage("Catégorie: " + name);
+						list.getOrCreate(name).set(e.getValue());
+						task.setProgress(++i / (double) total);
+					}
 				}
+			} finally {
+				list.collection.release();
 			}
 		} else {
 			Map<String, ImmutableDoubleList> section = stats.get(this.category);
 			if (section != null) {
-				int total = section.size(), i = 0;
-				for (Entry<String, ImmutableDoubleList> e : section.entrySet()) {
-					String key = e.getKey();
-					String name = this.category + "_" + (key.startsWith("stat_") ? key.substring(5) : key);
-					task.setMessage("Catégorie: " + name);
-					list.getOrCreate(name).set(e.getValue());
-					task.setProgress(++i / (double) total);
+				load(list, this.category);
+				try {
+					int total = section.size(), i = 0;
+					for (Entry<String, ImmutableDoubleList> e : section.entrySet()) {
+						String key = e.getKey();
+						String name = this.category + "_" + (key.startsWith("stat_") ? key.substring(5) : key);
+						task.setMessage("Catégorie: " + name);
+						list.getOrCreate(name).set(e.getValue());
+						task.setProgress(++i / (double) total);
+					}
+				} finally {
+					list.collection.release(this.category);
 				}
 			}
 		}
 	}
+
+	private static void load(RankingList list, String category) throws OperationException {
+		try {
+			if (category == null)
+				list.collection.load();
+			else
+				list.collection.load(category);
+		} catch (IOException e) {
+			throw new OperationException("Impossible de lire la collection: " + e.getMessage());
+		}
+	}
 }
@@ -23,16 +23,18 @@
 package net.smoofyuniverse.epi.stats.ranking;
 
 import net.smoofyuniverse.epi.util.DoubleList;
-import net.smoofyuniverse.epi.util.ImmutableList;
+import net.smoofyuniverse.epi.util.ImmutableIntList;
 
 import java.util.Arrays;
+import java.util.BitSet;
 
 public class Ranking {
 	public final RankingList parent;
 	public final String name;
 	public boolean descending = false;
 
-	private ImmutableList<Integer> sortedPlayers;
+	private ImmutableIntList sortedPlayers;
+	private int[] rankOf;
 	private double[] values;
 	private int size = 0;
 
@@ -60,7 +62,13 @@ public class Ranking {
 			throw new IllegalArgumentException("Length");
 		list.toArray(this.values);
 		this.sortedPlayers = null;
-		this.size = this.values.length;
+
+		int size = 0;
+		for (double v : this.values) {
+			if (v == v)
+				size++;
+		}
+		this.size = size;
 	}
 
 	public double put(int p, double v) {
@@ -89,6 +97,22 @@ public class Ranking {
 		return oldV;
 	}
 
+	public int remove(BitSet players) {
+		int count = 0;
+		for (int p = players.nextSetBit(0); p >= 0 && p < this.values.length; p = players.nextSetBit(p + 1)) {
+			double v = this.values[p];
+			if (v == v) {
+				this.values[p] = Double.NaN;
+				count++;
+			}
+		}
+		if (count != 0) {
+			this.sortedPlayers = null;
+			this.size -= count;
+		}
+		return count;
+	}
+
 	public boolean contains(int p) {
 		double v = this.values[p];
 		return v == v;
@@ -99,27 +123,44 @@ public class Ranking {
 	}
 
 	public int getRank(int p) {
-		return contains(p) ? list().indexOf(p) : -1;
+		if (!contains(p))
+			return -1;
+		if (this.sortedPlayers == null)
+			sort();
+		int rank = this.rankOf[p];
+		return this.descending ? this.size - 1 - rank : rank;
 	}
 
 	public double getValue(int p) {
 		return this.values[p];
 	}
 
-	public ImmutableList<Integer> list() {
+	public ImmutableIntList list() {
 		if (this.sortedPlayers == null)
-			this.sortedPlayers = ImmutableList.of(toSortedArray());
+			sort();
 		return this.descending ? this.sortedPlayers.inverseOrder() : this.sortedPlayers;
 	}
 
-	public Integer[] toSortedArray() {
-		Integer[] array = toArray();
-		Arrays.sort(array, this::compare);
+	private void sort() {
+		int[] array = toSortedArray();
+		if (this.rankOf == null)
+			this.rankOf = new int[this.values.length];
+		for (int i = 0; i < array.length; i++)
+			this.rankOf[array[i]] = i;
+		this.sortedPlayers = ImmutableIntList.of(array);
+	}
+
+	public int[] toSortedArray() {
+		int[] array = toArray();
+		long[] keys = new long[array.length];
+		for (int i = 0; i < array.length; i++)
+			keys[i] = sortKey(this.values[array[i]]);
+		radixSort(array, keys);
 		return array;
 	}
 
-	public Integer[] toArray() {
-		Integer[] array = new Integer[this.size];
+	public int[] toArray() {
+		int[] array = new int[this.size];
 		int index = 0;
 		for (int p = 0; p < this.values.length; p++) {
 			double v = this.values[p];
@@ -133,4 +174,54 @@ public class Ranking {
 		int r = Double.compare(this.values[p1], this.values[p2]);
 		return r == 0 ? Integer.compare(p1, p2) : -r;
 	}
+
+	// Maps a non-NaN value to a key whose unsigned order matches the order of compare
+	private static long sortKey(double v) {
+		long bits = Double.doubleToLongBits(v);
+		bits ^= (bits >> 63) & Long.MAX_VALUE;
+		return ~bits ^ Long.MIN_VALUE;
+	}
+
+	// Stable LSD radix sort, players with equal values keep their ascending index order
+	private static void radixSort(int[] players, long[] keys) {
+		int n = players.length;
+		if (n < 2)
+			return;
+
+		int[] target = players, players2 = new int[n];
+		long[] keys2 = new long[n];
+		int[] counts = new int[256];
+
+		for (int shift = 0; shift < 64; shift += 8) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < n; i++)
+				counts[(int) (keys[i] >>> shift) & 0xFF]++;
+
+			if (counts[(int) (keys[0] >>> shift) & 0xFF] == n)
+				continue;
+
+			int offset = 0;
+			for (int b = 0; b < 256; b++) {
+				int c = counts[b];
+				counts[b] = offset;
+				offset += c;
+			}
+
+			for (int i = 0; i < n; i++) {
+				int j = counts[(int) (keys[i] >>> shift) & 0xFF]++;
+				players2[j] = players[i];
+				keys2[j] = keys[i];
+			}
+
+			int[] tp = players;
+			players = players2;
+			players2 = tp;
+			long[] tk = keys;
+			keys = keys2;
+			keys2 = tk;
+		}
+
+		if (players != target)
+			System.arraycopy(players, 0, target, 0, n);
+	}
 }
@@ -26,6 +26,8 @@ import net.smoofyuniverse.common.util.StringUtil;
 import net.smoofyuniverse.epi.api.PlayerInfo;
 import net.smoofyuniverse.epi.stats.collection.DataCollection;
 import net.smoofyuniverse.epi.stats.operation.PlayerDependantArgument;
+import net.smoofyuniverse.epi.util.ImmutableIntList;
+import net.smoofyuniverse.epi.util.IntIterator;
 import org.mariuszgromada.math.mxparser.Argument;
 
 import java.io.*;
@@ -39,7 +41,7 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class RankingList {
-	public static final int CURRENT_VERSION = 6, MINIMUM_VERSION = 1;
+	public static final int CURRENT_VERSION = 7, MINIMUM_VERSION = 1;
 	
 	private Map<String, Ranking> rankings = new TreeMap<>();
 	private Set<String> extensions = new HashSet<>();
@@ -145,6 +147,7 @@ public class RankingList {
 			args.add(new PlayerDependantArgument(r.name, player, r::getValue));
 
 			if (rank_ && expression.contains("rank_" + r.name)) {
+				r.list();
 				args.add(new PlayerDependantArgument("rank_" + r.name, player, p -> {
 					int rank = r.getRank(p);
 					return rank == -1 ? Double.NaN : rank + 1;
@@ -196,7 +199,7 @@ public class RankingList {
 		out.newLine();
 
 		Ranking[] rankings = new Ranking[this.rankings.size()];
-		Iterator<Integer>[] iterators = new Iterator[rankings.length];
+		IntIterator[] iterators = new IntIterator[rankings.length];
 
 		out.write("Classement");
 
@@ -216,7 +219,7 @@ public class RankingList {
 			out.write(Integer.toString(rank +1));
 
 			for (i = 0; i < rankings.length; i++) {
-				Iterator<Integer> it = iterators[i];
+				IntIterator it = iterators[i];
 				if (it.hasNext()) {
 					int p = it.next();
 					out.write(',');
@@ -249,8 +252,10 @@ public class RankingList {
 			out.writeUTF(r.name);
 			out.writeBoolean(r.descending);
 
-			out.writeInt(r.size());
-			for (int p : r.list().originalOrder()) {
+			ImmutableIntList players = r.list().originalOrder();
+			out.writeInt(players.size());
+			for (int i = 0; i < players.size(); i++) {
+				int p = players.get(i);
 				out.writeInt(p);
 				out.writeDouble(r.getValue(p));
 			}
@@ -285,7 +290,7 @@ public class RankingList {
 			int size = in.readInt();
 			DataCollection.Builder builder = DataCollection.builder(size, false);
 			for (int i = 0; i < size; i++)
-				builder.add(null, PlayerInfo.EMPTY_UUID, in.readUTF(), null, date);
+				builder.add(PlayerInfo.EMPTY_UUID, in.readUTF(), null, date);
 
 			col = builder.build();
 		} else if (version <= 5) {
@@ -297,14 +302,14 @@ public class RankingList {
 				UUID id = new UUID(in.readLong(), in.readLong());
 				String name = in.readUTF();
 				if (useIntervals)
-					builder.add(null, null, id, name, null, Instant.ofEpochMilli(in.readLong()), Instant.ofEpochMilli(in.readLong()));
+					builder.add(id, name, null, Instant.ofEpochMilli(in.readLong()), Instant.ofEpochMilli(in.readLong()));
 				else
-					builder.add(null, id, name, null, Instant.ofEpochMilli(in.readLong()));
+					builder.add(id, name, null, Instant.ofEpochMilli(in.readLong()));
 			}
 
 			col = builder.build();
 		} else {
-			col = DataCollection.deserialize(in, 3, false, false);
+			col = DataCollection.deserialize(in, version >= 7 ? 4 : 3, false, false);
 		}
 
 		RankingList l = new RankingList(col);
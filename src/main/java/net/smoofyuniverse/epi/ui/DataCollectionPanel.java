@@ -25,14 +25,15 @@ package net.smoofyuniverse.epi.ui;
 import javafx.application.Platform;
 import javafx.beans.property.StringProperty;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.GridPane;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import net.smoofyuniverse.common.app.App;
 import net.smoofyuniverse.common.app.State;
-import net.smoofyuniverse.common.download.ConnectionConfiguration;
 import net.smoofyuniverse.common.event.Order;
 import net.smoofyuniverse.common.fx.dialog.Popup;
 import net.smoofyuniverse.common.fx.field.IntegerField;
@@ -40,56 +41,71 @@ import net.smoofyuniverse.common.task.ProgressTask;
 import net.smoofyuniverse.common.util.GridUtil;
 import net.smoofyuniverse.common.util.StringUtil;
 import net.smoofyuniverse.epi.EpiStats;
+import net.smoofyuniverse.epi.api.FetchEngine;
 import net.smoofyuniverse.epi.api.PlayerCache;
 import net.smoofyuniverse.epi.api.PlayerInfo;
 import net.smoofyuniverse.epi.stats.collection.DataCollection;
 import net.smoofyuniverse.epi.stats.collection.DataMergeResult;
+import net.smoofyuniverse.epi.stats.collection.SnapshotRepository;
+import net.smoofyuniverse.epi.stats.collection.SnapshotStore.Snapshot;
 import net.smoofyuniverse.logger.core.Logger;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DataCollectionPanel extends GridPane {
 	private static final Logger logger = App.getLogger("DataCollectionPanel");
 
 	private Label datesL = new Label("Dates:"), startL = new Label("Début:"), startDates = new Label("Depuis toujours"), startPlayers = new Label();
-	private Label endL = new Label("Fin:"), endDates = new Label("Indéfinie"), endPlayers = new Label(), cacheL = new Label("Cache:"), threadsL = new Label("Threads:");
-	private Button loadStart = new Button("Charger"), clearStart = new Button("Effacer");
-	private Button loadEnd = new Button("Charger"), genEnd = new Button("Générer"), saveEnd = new Button("Sauvegarder");
+	private Label endL = new Label("Fin:"), endDates = new Label("Indéfinie"), endPlayers = new Label(), cacheL = new Label("Cache:"), requestsL = new Label("Requêtes:"), rateL = new Label("Débit max:");
+	private Button loadStart = new Button("Charger"), historyStart = new Button("Historique"), clearStart = new Button("Effacer");
+	private Button loadEnd = new Button("Charger"), historyEnd = new Button("Historique"), genEnd = new Button("Générer"), saveEnd = new Button("Sauvegarder");
 	private TextField cacheAge = new TextField();
-	private IntegerField threads;
+	private IntegerField requests, rate;
 
 	private DataCollection startCol, endCol;
+	private Snapshot startSnapshot, endSnapshot;
 	private Duration maxAge = Duration.ofDays(1);
 
 	private UserInterface ui;
 	private EpiStats epi;
 	private PlayerCache cache;
-	private ExecutorService service;
+	private SnapshotRepository snapshots;
+	private final FetchEngine engine;
 
 	private FileChooser chooser = new FileChooser();
 
-	public DataCollectionPanel(UserInterface ui, PlayerCache cache) {
+	public DataCollectionPanel(UserInterface ui, PlayerCache cache, SnapshotRepository snapshots) {
 		this.ui = ui;
 		this.epi = ui.getEpiStats();
 		this.cache = cache;
+		this.snapshots = snapshots;
+		this.engine = new FetchEngine(this.epi.getPreferredConnectionConfig());
 
 		this.genEnd.setDisable(true);
 
-		int cores = Runtime.getRuntime().availableProcessors();
-		this.threads = new IntegerField(1, cores * 2, cores);
+		State.SHUTDOWN.newListener(e -> {
+			this.engine.shutdown();
+			this.cache.flush();
+		}, Order.DEFAULT).register();
+
+		this.requests = new IntegerField(1, 64, FetchEngine.DEFAULT_CONCURRENCY);
+		this.rate = new IntegerField(0, 1000, (int) FetchEngine.DEFAULT_RATE);
+		this.rate.setTooltip(new Tooltip("Nombre maximum de requêtes par seconde (0: illimité)"));
 
 		this.loadStart.setPrefWidth(Integer.MAX_VALUE);
+		this.historyStart.setPrefWidth(Integer.MAX_VALUE);
 		this.clearStart.setPrefWidth(Integer.MAX_VALUE);
 
 		this.loadEnd.setPrefWidth(Integer.MAX_VALUE);
+		this.historyEnd.setPrefWidth(Integer.MAX_VALUE);
 		this.genEnd.setPrefWidth(Integer.MAX_VALUE);
 		this.saveEnd.setPrefWidth(Integer.MAX_VALUE);
 
@@ -116,6 +132,19 @@ public class DataCollectionPanel extends GridPane {
 			});
 		});
 
+		this.historyStart.setOnAction(a -> chooseSnapshot().ifPresent(s -> {
+			setStartCollection(null);
+			this.epi.getExecutor().execute(() -> {
+				try {
+					logger.debug("Reading data collection from history ..");
+					setStartCollection(this.snapshots.get(s), s);
+				} catch (Exception e) {
+					Popup.error().title("Erreur de lecture").header("Une erreur est survenue lors de la lecture de l'historique").message(e).show();
+					logger.error("Failed to read snapshot " + s.index, e);
+				}
+			});
+		}));
+
 		this.clearStart.setOnAction(a -> setStartCollection(null));
 
 		this.loadEnd.setOnAction(a -> {
@@ -136,6 +165,19 @@ public class DataCollectionPanel extends GridPane {
 			});
 		});
 
+		this.historyEnd.setOnAction(a -> chooseSnapshot().ifPresent(s -> {
+			setEndCollection(null);
+			this.epi.getExecutor().execute(() -> {
+				try {
+					logger.debug("Reading data collection from history ..");
+					setEndCollection(this.snapshots.get(s), s);
+				} catch (Exception e) {
+					Popup.error().title("Erreur de lecture").header("Une erreur est survenue lors de la lecture de l'historique").message(e).show();
+					logger.error("Failed to read snapshot " + s.index, e);
+				}
+			});
+		}));
+
 		this.genEnd.setOnAction(a -> {
 			if (this.ui.getObjectListPanel().getObjectList().players.isEmpty())
 				return;
@@ -175,25 +217,56 @@ public class DataCollectionPanel extends GridPane {
 		add(this.startPlayers, 5, 1);
 
 		add(this.loadStart, 2, 2);
-		add(this.clearStart, 3, 2, 2, 1);
+		add(this.historyStart, 3, 2);
+		add(this.clearStart, 4, 2, 2, 1);
 
 		add(this.endL, 1, 3);
 		add(this.endDates, 2, 3, 3, 1);
 		add(this.endPlayers, 5, 3);
 
 		add(this.loadEnd, 2, 4);
-		add(this.genEnd, 3, 4, 2, 1);
+		add(this.historyEnd, 3, 4);
+		add(this.genEnd, 4, 4);
 		add(this.saveEnd, 5, 4);
 
 		add(this.cacheL, 0, 5);
 		add(this.cacheAge, 1, 5, 2, 1);
 
-		add(this.threadsL, 3, 5);
-		add(this.threads, 4, 5, 3, 1);
+		add(this.requestsL, 3, 5);
+		add(this.requests, 4, 5, 3, 1);
+
+		add(this.rateL, 3, 6);
+		add(this.rate, 4, 6, 3, 1);
 
 		getColumnConstraints().addAll(GridUtil.createColumn(15), GridUtil.createColumn(10), GridUtil.createColumn(25), GridUtil.createColumn(15), GridUtil.createColumn(10), GridUtil.createColumn(25));
 	}
 
+	private Optional<Snapshot> chooseSnapshot() {
+		List<Snapshot> list;
+		try {
+			list = this.snapshots.store.list();
+		} catch (IOException e) {
+			Popup.error().title("Erreur de lecture").header("Une erreur est survenue lors de la lecture de l'historique").message(e).show();
+			logger.error("Failed to list snapshots", e);
+			return Optional.empty();
+		}
+
+		if (list.isEmpty()) {
+			Popup.info().title("Historique vide").message("Aucune collection de données n'a encore été générée.").show();
+			return Optional.empty();
+		}
+
+		List<String> labels = new ArrayList<>(list.size());
+		for (Snapshot s : list)
+			labels.add("n°" + (s.index + 1) + " - Du " + StringUtil.DATETIME_FORMAT.format(s.minEndDate) + " au " + StringUtil.DATETIME_FORMAT.format(s.maxEndDate)
+					+ " (" + s.size + " " + (s.size > 1 ? "joueurs" : "joueur") + ")");
+
+		ChoiceDialog<String> dialog = new ChoiceDialog<>(labels.get(labels.size() - 1), labels);
+		dialog.setTitle("Historique");
+		dialog.setHeaderText("Sélectionnez une collection de données générée précédemment.");
+		return dialog.showAndWait().map(l -> list.get(labels.indexOf(l)));
+	}
+
 	private void parseCacheAge() {
 		String s = this.cacheAge.getText();
 		this.maxAge = s.isEmpty() ? Duration.ofDays(1) : StringUtil.parseDuration(s);
@@ -201,60 +274,75 @@ public class DataCollectionPanel extends GridPane {
 	}
 
 	private void generateEnd(boolean notifyTaskEnd) {
-		if (Popup.confirmation().title("Attention").message("Générer une collection de données peut être très long pour un nombre important de joueurs !\nEtes-vous sûr de vouloir continuer ?").submitAndWait()) {
-			Instant minDate = Instant.now().minus(this.maxAge);
-
-			if (this.service == null) {
-				this.service = Executors.newCachedThreadPool();
-				State.SHUTDOWN.newListener(e -> this.service.shutdown(), Order.DEFAULT).register();
-			}
+		Instant minDate = Instant.now().minus(this.maxAge);
+		PlayerCache.FetchPlan plan = this.cache.plan(this.ui.getObjectListPanel().getObjectList().players, minDate);
 
+		if (Popup.confirmation().title("Attention").message(plan.fresh.size() + " " + (plan.fresh.size() > 1 ? "joueurs" : "joueur") + " en cache / " + plan.stale.size() + " à télécharger."
+				+ "\nGénérer une collection de données peut être très long pour un nombre important de joueurs !\nEtes-vous sûr de vouloir continuer ?").submitAndWait()) {
 			setEndCollection(null);
 
 			Popup.consumer((task) -> {
-				DataCollector collector = new DataCollector(task, this.epi.getPreferredConnectionConfig(), this.ui.getObjectListPanel().getObjectList().players, minDate);
-				int workers = Math.min(this.threads.getValue(), collector.total / 10);
+				FetchEngine engine = getFetchEngine();
+				FetchEngine.Report start = engine.getReport();
+				DataCollector collector = new DataCollector(task, engine, plan);
 
-				logger.info("Collecting data for " + collector.total + " players (" + workers + " workers) ..");
+				logger.info("Collecting data for " + collector.total + " players (" + this.requests.getValue() + " concurrent requests, " + (this.rate.getValue() == 0 ? "unlimited rate" : this.rate.getValue() + " requests/s") + ") ..");
 				task.setTitle("Collecte des données des joueurs ..");
 				task.setProgress(0);
 
 				long time = System.currentTimeMillis();
 
-				CountDownLatch lock = new CountDownLatch(workers);
-				for (int i = 0; i < workers; i++) {
-					this.service.execute(() -> {
-						collector.collectAll();
-						lock.countDown();
-					});
-				}
-
 				try {
-					lock.await();
-				} catch (InterruptedException e) {
-					task.cancel();
+					collector.collectAll();
+				} finally {
+					engine.cancelAll();
 				}
 
+				FetchEngine.Report report = engine.getReport().since(start);
+				logger.info("Fetch report: " + report + " (final concurrency: " + engine.getConcurrencyLimit() + ").");
+				for (FetchEngine.Failure f : report.failures)
+					logger.warn("Failed to fetch " + f);
+
+				this.cache.flush();
+
 				if (task.isCancelled()) {
 					logger.info("Cancelled.");
 					return;
 				}
 
 				logger.info("Collected data of " + collector.builder.size() + " players in " + (System.currentTimeMillis() - time) / 1000F + "s.");
+				logger.debug("Player cache: " + this.cache.getHits() + " hits, " + this.cache.getMisses() + " misses, " + this.cache.getEvictions() + " evictions.");
 
 				DataCollection col = collector.builder.build();
-				setEndCollection(col);
+				Snapshot snapshot = null;
+
+				if (col.size != 0) {
+					task.setTitle("Enregistrement de la collection dans l'historique ..");
+					try {
+						snapshot = this.snapshots.append(col);
+					} catch (Exception e) {
+						logger.error("Failed to append data collection to snapshot store", e);
+					}
+				}
+
+				setEndCollection(col, snapshot);
 
 				if (notifyTaskEnd)
-					Popup.info().title("Génération terminée").message("Une collection contenant " + col.size + " " + (col.size > 1 ? "joueurs" : "joueur") + " a été générée.").show();
+					Popup.info().title("Génération terminée").message("Une collection contenant " + col.size + " " + (col.size > 1 ? "joueurs" : "joueur") + " a été générée."
+							+ (report.failures.isEmpty() ? "" : "\n" + report.failures.size() + " " + (report.failures.size() > 1 ? "joueurs n'ont pas pu être téléchargés" : "joueur n'a pas pu être téléchargé") + " (voir les logs).")).show();
 			}).title("Génération de la collection de données ..").submitAndWait();
 		}
 	}
 
 	private void setStartCollection(DataCollection col) {
+		setStartCollection(col, null);
+	}
+
+	private void setStartCollection(DataCollection col, Snapshot snapshot) {
 		if (Platform.isFxApplicationThread()) {
 			if (col == null) {
 				this.startCol = null;
+				this.startSnapshot = null;
 				this.startDates.setText("Depuis toujours");
 				this.startPlayers.setText(null);
 			} else {
@@ -262,17 +350,23 @@ public class DataCollectionPanel extends GridPane {
 					throw new IllegalArgumentException("Intervals");
 
 				this.startCol = col;
+				this.startSnapshot = snapshot;
 				this.startDates.setText("Du " + StringUtil.DATETIME_FORMAT.format(col.minEndDate) + " au " + StringUtil.DATETIME_FORMAT.format(col.maxEndDate));
 				this.startPlayers.setText("(" + col.size + " " + (col.size > 1 ? "joueurs" : "joueur") + ")");
 			}
 		} else
-			Platform.runLater(() -> setStartCollection(col));
+			Platform.runLater(() -> setStartCollection(col, snapshot));
 	}
 
 	private void setEndCollection(DataCollection col) {
+		setEndCollection(col, null);
+	}
+
+	private void setEndCollection(DataCollection col, Snapshot snapshot) {
 		if (Platform.isFxApplicationThread()) {
 			if (col == null) {
 				this.endCol = null;
+				this.endSnapshot = null;
 				this.endDates.setText("Indéfinie");
 				this.endPlayers.setText(null);
 			} else {
@@ -280,11 +374,12 @@ public class DataCollectionPanel extends GridPane {
 					throw new IllegalArgumentException("Intervals");
 
 				this.endCol = col;
+				this.endSnapshot = snapshot;
 				this.endDates.setText("Du " + StringUtil.DATETIME_FORMAT.format(col.minEndDate) + " au " + StringUtil.DATETIME_FORMAT.format(col.maxEndDate));
 				this.endPlayers.setText("(" + col.size + " " + (col.size > 1 ? "joueurs" : "joueur") + ")");
 			}
 		} else
-			Platform.runLater(() -> setEndCollection(col));
+			Platform.runLater(() -> setEndCollection(col, snapshot));
 	}
 
 	public Optional<DataCollection> getTargetCollection() {
@@ -306,7 +401,7 @@ public class DataCollectionPanel extends GridPane {
 			return Optional.empty();
 		}
 
-		DataMergeResult r = DataCollection.merge(ids, this.startCol, this.endCol);
+		DataMergeResult r = merge(ids);
 		if (r.totalMissing != 0) {
 			String msg;
 			if (r.totalMissing == 1) {
@@ -325,50 +420,101 @@ public class DataCollectionPanel extends GridPane {
 		return Optional.of(r.collection);
 	}
 
+	private DataMergeResult merge(Set<UUID> ids) {
+		if (this.endSnapshot != null && (this.startCol == null || this.startSnapshot != null)) {
+			try {
+				return this.snapshots.merge(ids, this.startSnapshot, this.endSnapshot, null);
+			} catch (IOException e) {
+				logger.warn("Failed to merge snapshots, merging loaded collections instead", e);
+			}
+		}
+		return DataCollection.merge(ids, this.startCol, this.endCol);
+	}
+
 	private class DataCollector {
 		private ProgressTask task;
-		private ConnectionConfiguration config;
-		private Queue<UUID> ids;
-		private Instant minDate;
+		private FetchEngine engine;
+		private PlayerCache.FetchPlan plan;
 
 		private DataCollection.Builder builder;
-		private transient int total, progress;
+		private AtomicInteger progress = new AtomicInteger();
+		private int total;
 
-		public DataCollector(ProgressTask task, ConnectionConfiguration config, Collection<UUID> ids, Instant minDate) {
+		public DataCollector(ProgressTask task, FetchEngine engine, PlayerCache.FetchPlan plan) {
 			this.task = task;
-			this.config = config;
-			this.ids = new ConcurrentLinkedQueue<>(ids);
-			this.minDate = minDate;
+			this.engine = engine;
+			this.plan = plan;
 
-			this.total = ids.size();
-			this.builder = DataCollection.builder(this.ids.size(), false);
+			this.total = plan.fresh.size() + plan.stale.size();
+			this.builder = DataCollection.builder(this.total, false);
 		}
 
 		public void collectAll() {
-			while (!this.ids.isEmpty() && !this.task.isCancelled())
-				collectNext();
-		}
+			List<CompletableFuture<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < this.plan.stale.size(); i++) {
+				if (this.task.isCancelled())
+					return;
+				futures.add(fetch(this.plan.stale.get(i), this.plan.getETag(i), this.plan.getLastModified(i)));
+			}
 
-		public void collectNext() {
-			UUID id = this.ids.poll();
-			if (id == null)
-				return;
-			this.task.setMessage("Joueur: " + id);
+			for (UUID id : this.plan.fresh) {
+				if (this.task.isCancelled())
+					return;
 
-			PlayerInfo p = DataCollectionPanel.this.cache.read(id).orElse(null);
-			if (p == null || p.date.isBefore(this.minDate)) {
-				p = PlayerInfo.get(id, this.config, true).orElse(null);
+				PlayerInfo p = DataCollectionPanel.this.cache.read(id).orElse(null);
+				if (p == null)
+					futures.add(fetch(id, null, 0));
+				else {
+					this.builder.add(p);
+					progress();
+				}
+			}
+
+			CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+			while (!this.task.isCancelled()) {
+				try {
+					all.get(200, TimeUnit.MILLISECONDS);
+					return;
+				} catch (TimeoutException ignored) {
+				} catch (InterruptedException e) {
+					this.task.cancel();
+				} catch (ExecutionException ignored) {
+					return;
+				}
+			}
+		}
+
+		private CompletableFuture<Void> fetch(UUID id, String etag, long lastModified) {
+			AtomicReference<PlayerInfo> cached = new AtomicReference<>();
+			return this.engine.fetchPlayer(id, true, etag, lastModified, () -> {
+				PlayerInfo p = DataCollectionPanel.this.cache.read(id).orElse(null);
+				cached.set(p);
+				return p;
+			}).handle((p, e) -> {
 				if (p != null) {
-					DataCollectionPanel.this.cache.save(p);
+					if (cached.get() != null && p.sharesStats(cached.get()))
+						DataCollectionPanel.this.cache.touch(p);
+					else
+						DataCollectionPanel.this.cache.save(p);
 					this.builder.add(p);
 				}
-			} else
-				this.builder.add(p);
+				progress();
+				return null;
+			});
+		}
 
-			this.task.setProgress(++this.progress / (double) this.total);
+		private void progress() {
+			int progress = this.progress.incrementAndGet();
+			this.task.setMessage(progress + " / " + this.total);
+			this.task.setProgress(progress / (double) this.total);
 		}
 	}
 
+	public FetchEngine getFetchEngine() {
+		this.engine.configure(this.epi.getPreferredConnectionConfig(), this.requests.getValue(), FetchEngine.DEFAULT_TIMEOUT, this.rate.getValue(), FetchEngine.DEFAULT_RETRIES);
+		return this.engine;
+	}
+
 	public StringProperty getCacheAge() {
 		return this.cacheAge.textProperty();
 	}
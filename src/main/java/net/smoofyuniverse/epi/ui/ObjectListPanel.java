@@ -49,12 +49,14 @@ public class ObjectListPanel extends GridPane {
 	private Button removeP = new Button("Retirer"), removeG = new Button("Retirer");
 	private Button clearL = new Button("Vider"), importL = new Button("Importer"), exportL = new Button("Exporter"), refreshL = new Button("Actualiser");
 
+	private UserInterface ui;
 	private EpiStats epi;
 	private ObjectList list;
 
 	private FileChooser chooser = new FileChooser();
 
 	public ObjectListPanel(UserInterface ui, ObjectList list) {
+		this.ui = ui;
 		this.epi = ui.getEpiStats();
 		this.list = list;
 
@@ -168,7 +170,7 @@ public class ObjectListPanel extends GridPane {
 		this.refreshL.setOnAction(a -> {
 			if (Popup.confirmation().title("Attention").message("Actualiser peut être très long pour des quantités importantes de données !\nEtes-vous sûr de vouloir continuer ?").submitAndWait()) {
 				logger.info("Starting refresh task ..");
-				if (Popup.consumer(t -> this.list.refresh(t, this.epi.getPreferredConnectionConfig())).title("Actualisation des données ..").submitAndWait()) {
+				if (Popup.consumer(t -> this.list.refresh(t, this.ui.getDataCollectionPanel().getFetchEngine())).title("Actualisation des données ..").submitAndWait()) {
 					logger.info("Refresh task ended.");
 					saveObjectList();
 				} else {
@@ -38,6 +38,7 @@ import net.smoofyuniverse.epi.EpiStats;
 import net.smoofyuniverse.epi.stats.collection.DataCollection;
 import net.smoofyuniverse.epi.stats.ranking.Ranking;
 import net.smoofyuniverse.epi.stats.ranking.RankingList;
+import net.smoofyuniverse.epi.util.IntIterator;
 import net.smoofyuniverse.logger.core.Logger;
 
 import java.io.File;
@@ -115,8 +116,9 @@ public final class RankingListPanel extends GridPane {
 			String name = newV.toLowerCase(Locale.ROOT);
 
 			int i = 1;
-			for (int p : r.list()) {
-				String n = this.list.collection.names.get(p);
+			IntIterator it = r.list().iterator();
+			while (it.hasNext()) {
+				String n = this.list.collection.names.get(it.next());
 				if (n.toLowerCase(Locale.ROOT).startsWith(name)) {
 					this.index.valueProperty().set(i);
 					break;
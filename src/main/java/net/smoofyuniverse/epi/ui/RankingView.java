@@ -30,6 +30,7 @@ import net.smoofyuniverse.common.util.GridUtil;
 import net.smoofyuniverse.common.util.StringUtil;
 import net.smoofyuniverse.epi.stats.collection.DataCollection;
 import net.smoofyuniverse.epi.stats.ranking.Ranking;
+import net.smoofyuniverse.epi.util.ImmutableIntList;
 
 import java.text.DecimalFormat;
 import java.util.Optional;
@@ -38,6 +39,7 @@ public final class RankingView extends ListView<Integer> {
 	public static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("0.0#####");
 
 	private Ranking ranking;
+	private ImmutableIntList players;
 	private UserInterface ui;
 
 	public RankingView(UserInterface ui) {
@@ -71,10 +73,13 @@ public final class RankingView extends ListView<Integer> {
 	
 	public void open(Ranking r) {
 		this.ranking = r;
-		if (r == null)
+		if (r == null) {
+			this.players = null;
 			getItems().clear();
-		else
-			getItems().setAll(r.list());
+		} else {
+			this.players = r.list();
+			getItems().setAll(this.players.asList());
+		}
 	}
 
 	private class StatsCell extends ListCell<Integer> {
@@ -101,12 +106,12 @@ public final class RankingView extends ListView<Integer> {
 
 		private Node updateContent() {
 			DataCollection col = RankingView.this.ranking.parent.collection;
-			int p = getItem();
+			int p = RankingView.this.players.get(getIndex());
 
 			this.index.setText("#" + (getIndex() +1));
 			this.name.setText(col.names.get(p));
 			this.value.setText(DECIMAL_FORMAT.format(RankingView.this.ranking.getValue(p)));
-			this.tooltip.setText(col.containsIntervals ? (StringUtil.DATETIME_FORMAT.format(col.startDates.get(p)) + " - " + StringUtil.DATETIME_FORMAT.format(col.endDates.get(p))) : StringUtil.DATETIME_FORMAT.format(col.endDates.get(p)));
+			this.tooltip.setText(col.containsIntervals ? (StringUtil.DATETIME_FORMAT.format(col.getStartDate(p)) + " - " + StringUtil.DATETIME_FORMAT.format(col.getEndDate(p))) : StringUtil.DATETIME_FORMAT.format(col.getEndDate(p)));
 
 			return this.content;
 		}
@@ -34,6 +34,7 @@ import net.smoofyuniverse.common.util.GridUtil;
 import net.smoofyuniverse.epi.EpiStats;
 import net.smoofyuniverse.epi.api.PlayerCache;
 import net.smoofyuniverse.epi.stats.ObjectList;
+import net.smoofyuniverse.epi.stats.collection.SnapshotRepository;
 import net.smoofyuniverse.logger.core.Logger;
 
 import java.io.DataInputStream;
@@ -56,13 +57,13 @@ public final class UserInterface extends GridPane {
 	private EpiStats epi;
 	private Path saveFile;
 
-	public UserInterface(EpiStats epi, Path saveFile, ObjectList list, PlayerCache cache) {
+	public UserInterface(EpiStats epi, Path saveFile, ObjectList list, PlayerCache cache, SnapshotRepository snapshots) {
 		this.epi = epi;
 		this.saveFile = saveFile;
 
 		this.connectionConfigPanel = new ConnectionConfigPanel(this);
 		this.objectListPanel = new ObjectListPanel(this, list);
-		this.dataCollectionPanel = new DataCollectionPanel(this, cache);
+		this.dataCollectionPanel = new DataCollectionPanel(this, cache, snapshots);
 		this.generationPanel = new GenerationPanel(this);
 		this.rankingListPanel = new RankingListPanel(this);
 		this.rankingView = new RankingView(this);
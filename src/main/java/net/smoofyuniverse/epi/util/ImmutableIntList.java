@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class ImmutableIntList {
+	private static final ImmutableIntList EMPTY = new ImmutableIntList(new int[0]);
+
+	protected ImmutableIntList inverse;
+	protected int[] array;
+
+	private ImmutableIntList(int[] array) {
+		this.array = array;
+		this.inverse = new Inverted(this);
+	}
+
+	private ImmutableIntList() {}
+
+	public int get(int index) {
+		return this.array[index];
+	}
+
+	public int size() {
+		return this.array.length;
+	}
+
+	public boolean isEmpty() {
+		return this.array.length == 0;
+	}
+
+	public int indexOf(int value) {
+		for (int i = 0; i < this.array.length; i++) {
+			if (get(i) == value)
+				return i;
+		}
+		return -1;
+	}
+
+	public IntIterator iterator() {
+		return new Iterator();
+	}
+
+	public ImmutableIntList originalOrder() {
+		return this;
+	}
+
+	public ImmutableIntList inverseOrder() {
+		return this.inverse;
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(this.array, this.array.length);
+	}
+
+	public List<Integer> asList() {
+		return new AbstractList<Integer>() {
+			@Override
+			public Integer get(int index) {
+				return ImmutableIntList.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return ImmutableIntList.this.array.length;
+			}
+		};
+	}
+
+	public static ImmutableIntList empty() {
+		return EMPTY;
+	}
+
+	public static ImmutableIntList of(int[] array) {
+		if (array.length == 0)
+			return EMPTY;
+		return new ImmutableIntList(array);
+	}
+
+	public static ImmutableIntList copyOf(int[] array) {
+		if (array.length == 0)
+			return EMPTY;
+		return new ImmutableIntList(Arrays.copyOf(array, array.length));
+	}
+
+	private class Iterator implements IntIterator {
+		private int index = 0;
+
+		@Override
+		public boolean hasNext() {
+			return this.index < ImmutableIntList.this.array.length;
+		}
+
+		@Override
+		public int next() {
+			if (this.index >= ImmutableIntList.this.array.length)
+				throw new NoSuchElementException();
+			return get(this.index++);
+		}
+	}
+
+	private static class Inverted extends ImmutableIntList {
+		public Inverted(ImmutableIntList list) {
+			this.array = list.array;
+			this.inverse = list;
+		}
+
+		@Override
+		public int get(int index) {
+			return this.array[this.array.length - 1 - index];
+		}
+
+		@Override
+		public ImmutableIntList originalOrder() {
+			return this.inverse;
+		}
+
+		@Override
+		public int[] toArray() {
+			int[] array = new int[this.array.length];
+			for (int i = 0; i < array.length; i++)
+				array[i] = this.array[array.length - 1 - i];
+			return array;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.util;
+
+import java.util.Arrays;
+
+public class ImmutableLongList {
+	private static final ImmutableLongList EMPTY = new ImmutableLongList(new long[0]);
+
+	private final long[] array;
+
+	private ImmutableLongList(long[] array) {
+		this.array = array;
+	}
+
+	public long get(int index) {
+		return this.array[index];
+	}
+
+	public int size() {
+		return this.array.length;
+	}
+
+	public boolean isEmpty() {
+		return this.array.length == 0;
+	}
+
+	public long min() {
+		if (this.array.length == 0)
+			throw new IllegalStateException("Empty list");
+		long min = Long.MAX_VALUE;
+		for (long v : this.array) {
+			if (v < min)
+				min = v;
+		}
+		return min;
+	}
+
+	public long max() {
+		if (this.array.length == 0)
+			throw new IllegalStateException("Empty list");
+		long max = Long.MIN_VALUE;
+		for (long v : this.array) {
+			if (v > max)
+				max = v;
+		}
+		return max;
+	}
+
+	public long[] toArray() {
+		return Arrays.copyOf(this.array, this.array.length);
+	}
+
+	public static ImmutableLongList empty() {
+		return EMPTY;
+	}
+
+	public static ImmutableLongList of(long[] array) {
+		if (array.length == 0)
+			return EMPTY;
+		return new ImmutableLongList(array);
+	}
+
+	public static ImmutableLongList copyOf(long[] array) {
+		if (array.length == 0)
+			return EMPTY;
+		return new ImmutableLongList(Arrays.copyOf(array, array.length));
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StringColumn {
+	private final StringDictionary dictionary;
+	private final int[] codes;
+
+	private StringColumn(StringDictionary dictionary, int[] codes) {
+		this.dictionary = dictionary;
+		this.codes = codes;
+	}
+
+	public String get(int index) {
+		return this.dictionary.get(this.codes[index]);
+	}
+
+	public int getCode(int index) {
+		return this.codes[index];
+	}
+
+	public StringDictionary getDictionary() {
+		return this.dictionary;
+	}
+
+	public int size() {
+		return this.codes.length;
+	}
+
+	public int[] toCodeArray() {
+		return Arrays.copyOf(this.codes, this.codes.length);
+	}
+
+	public List<String> asList() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return StringColumn.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return StringColumn.this.codes.length;
+			}
+		};
+	}
+
+	public static StringColumn of(StringDictionary dictionary, int[] codes) {
+		return new StringColumn(dictionary, codes);
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class StringDictionary {
+	private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+	private volatile String[] strings = new String[256];
+	private int size;
+
+	public int code(String value) {
+		if (value == null)
+			return -1;
+		Integer code = this.codes.get(value);
+		return code == null ? add(value) : code;
+	}
+
+	private synchronized int add(String value) {
+		Integer code = this.codes.get(value);
+		if (code != null)
+			return code;
+
+		if (this.size == this.strings.length)
+			this.strings = Arrays.copyOf(this.strings, this.size * 2);
+		this.strings[this.size] = value;
+		this.codes.put(value, this.size);
+		return this.size++;
+	}
+
+	public String get(int code) {
+		return code == -1 ? null : this.strings[code];
+	}
+
+	public String intern(String value) {
+		return get(code(value));
+	}
+
+	public int size() {
+		return this.codes.size();
+	}
+}
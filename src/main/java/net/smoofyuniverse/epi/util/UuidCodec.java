@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.util;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+public final class UuidCodec {
+	private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+	private static final byte[] VALUES = new byte[128];
+
+	private UuidCodec() {}
+
+	public static UUID parse(CharSequence value) {
+		int length = value.length();
+		if (length == 32)
+			return new UUID(parseHex(value, 0, 16), parseHex(value, 16, 32));
+
+		if (length == 36 && value.charAt(8) == '-' && value.charAt(13) == '-' && value.charAt(18) == '-' && value.charAt(23) == '-') {
+			long most = parseHex(value, 0, 8) << 32 | parseHex(value, 9, 13) << 16 | parseHex(value, 14, 18);
+			long least = parseHex(value, 19, 23) << 48 | parseHex(value, 24, 36);
+			return new UUID(most, least);
+		}
+
+		throw new IllegalArgumentException("Invalid UUID: " + value);
+	}
+
+	private static long parseHex(CharSequence value, int start, int end) {
+		long v = 0;
+		for (int i = start; i < end; i++) {
+			char c = value.charAt(i);
+			int d = c < 128 ? VALUES[c] : -1;
+			if (d == -1)
+				throw new IllegalArgumentException("Invalid UUID: " + value);
+			v = v << 4 | d;
+		}
+		return v;
+	}
+
+	public static String toHex(UUID id) {
+		char[] chars = new char[32];
+		writeHex(chars, 0, id.getMostSignificantBits());
+		writeHex(chars, 16, id.getLeastSignificantBits());
+		return new String(chars);
+	}
+
+	private static void writeHex(char[] chars, int offset, long v) {
+		for (int i = offset + 15; i >= offset; i--) {
+			chars[i] = DIGITS[(int) v & 0xF];
+			v >>>= 4;
+		}
+	}
+
+	static {
+		Arrays.fill(VALUES, (byte) -1);
+		for (int i = 0; i < 10; i++)
+			VALUES['0' + i] = (byte) i;
+		for (int i = 0; i < 6; i++) {
+			VALUES['a' + i] = (byte) (10 + i);
+			VALUES['A' + i] = (byte) (10 + i);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.util;
+
+import java.util.*;
+
+public final class UuidIndex {
+	private long[] keys;
+	private int[] values;
+	private int mask, size;
+
+	public UuidIndex(int capacity) {
+		int length = Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+		this.keys = new long[length * 2];
+		this.values = new int[length];
+		Arrays.fill(this.values, -1);
+		this.mask = length - 1;
+	}
+
+	public int get(UUID id) {
+		return get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+	}
+
+	public int get(long most, long least) {
+		int i = hash(most, least) & this.mask;
+		int v;
+		while ((v = this.values[i]) != -1) {
+			if (this.keys[i << 1] == most && this.keys[(i << 1) | 1] == least)
+				return v;
+			i = (i + 1) & this.mask;
+		}
+		return -1;
+	}
+
+	public boolean contains(UUID id) {
+		return get(id) != -1;
+	}
+
+	public int put(UUID id, int value) {
+		return put(id.getMostSignificantBits(), id.getLeastSignificantBits(), value);
+	}
+
+	public int put(long most, long least, int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("value");
+
+		int i = hash(most, least) & this.mask;
+		int v;
+		while ((v = this.values[i]) != -1) {
+			if (this.keys[i << 1] == most && this.keys[(i << 1) | 1] == least) {
+				this.values[i] = value;
+				return v;
+			}
+			i = (i + 1) & this.mask;
+		}
+
+		this.keys[i << 1] = most;
+		this.keys[(i << 1) | 1] = least;
+		this.values[i] = value;
+		if (++this.size > (this.values.length >> 1))
+			grow();
+		return -1;
+	}
+
+	private void grow() {
+		long[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+
+		int length = oldValues.length << 1;
+		this.keys = new long[length * 2];
+		this.values = new int[length];
+		Arrays.fill(this.values, -1);
+		this.mask = length - 1;
+
+		for (int j = 0; j < oldValues.length; j++) {
+			int v = oldValues[j];
+			if (v == -1)
+				continue;
+
+			long most = oldKeys[j << 1], least = oldKeys[(j << 1) | 1];
+			int i = hash(most, least) & this.mask;
+			while (this.values[i] != -1)
+				i = (i + 1) & this.mask;
+
+			this.keys[i << 1] = most;
+			this.keys[(i << 1) | 1] = least;
+			this.values[i] = v;
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public Map<UUID, Integer> asMap() {
+		return new MapView();
+	}
+
+	public static UuidIndex of(Collection<UUID> ids) {
+		UuidIndex index = new UuidIndex(ids.size());
+		int i = 0;
+		for (UUID id : ids)
+			index.put(id, i++);
+		return index;
+	}
+
+	private static int hash(long most, long least) {
+		long h = most * 0x9E3779B97F4A7C15L ^ least;
+		h ^= h >>> 33;
+		h *= 0xC2B2AE3D27D4EB4FL;
+		h ^= h >>> 29;
+		return (int) h;
+	}
+
+	private final class MapView extends AbstractMap<UUID, Integer> {
+
+		@Override
+		public Integer get(Object key) {
+			if (!(key instanceof UUID))
+				return null;
+			int v = UuidIndex.this.get((UUID) key);
+			return v == -1 ? null : v;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof UUID && UuidIndex.this.contains((UUID) key);
+		}
+
+		@Override
+		public int size() {
+			return UuidIndex.this.size;
+		}
+
+		@Override
+		public Set<Entry<UUID, Integer>> entrySet() {
+			return new AbstractSet<Entry<UUID, Integer>>() {
+				@Override
+				public Iterator<Entry<UUID, Integer>> iterator() {
+					return new Iterator<Entry<UUID, Integer>>() {
+						private final int[] values = UuidIndex.this.values;
+						private final long[] keys = UuidIndex.this.keys;
+						private int next = advance(0);
+
+						private int advance(int i) {
+							while (i < this.values.length && this.values[i] == -1)
+								i++;
+							return i;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return this.next < this.values.length;
+						}
+
+						@Override
+						public Entry<UUID, Integer> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							int i = this.next;
+							this.next = advance(i + 1);
+							return new SimpleImmutableEntry<>(new UUID(this.keys[i << 1], this.keys[(i << 1) | 1]), this.values[i]);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return UuidIndex.this.size;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.epi.stats.expression;
+
+import net.smoofyuniverse.epi.stats.collection.DataCollection;
+import net.smoofyuniverse.epi.stats.ranking.Ranking;
+import net.smoofyuniverse.epi.stats.ranking.RankingList;
+import org.junit.Test;
+import org.mariuszgromada.math.mxparser.Expression;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+public class CompiledExpressionTest {
+	private static final String[] NAMES = {"a_kills", "a_deaths", "b_kills", "x", "rank_a_kills", "rank_x", "total_kills", "total_deaths"},
+			NUMBERS = {"0", "1", "2", "3", "0.5", "10", "1e2", "2.5E-1"},
+			BINARY = {"+", "-", "*", "/", "^", "=", "==", "<>", "~=", "!=", "<", ">", "<=", ">=", "&", "&&", "|", "||"},
+			UNARY = {"-", "~"},
+			FUNCTIONS = {"min", "max", "abs"};
+	private static final int PLAYERS = 32, EXPRESSIONS = 5000;
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void matchesMXparser() {
+		RankingList list = createList();
+		AtomicInteger player = new AtomicInteger();
+		List<String> mismatches = new ArrayList<>();
+		int compared = 0;
+
+		for (int i = 0; i < EXPRESSIONS; i++) {
+			String s = generate(4);
+			Optional<CompiledExpression> compiled = CompiledExpression.compile(s, list);
+			if (!compiled.isPresent())
+				continue;
+
+			Expression e = new Expression(s);
+			e.addArguments(list.getArguments(s, player));
+			if (!e.checkSyntax())
+				continue;
+
+			compared++;
+			double[] block = new double[PLAYERS];
+			compiled.get().evaluate(0, block, 0, PLAYERS);
+			for (int p = 0; p < PLAYERS; p++) {
+				player.set(p);
+				double expected = e.calculate(), single = compiled.get().evaluate(p);
+				if (!same(expected, single) || !same(expected, block[p])) {
+					mismatches.add(s + " (player " + p + "): expected " + expected + ", got " + single + " / " + block[p]);
+					break;
+				}
+			}
+		}
+
+		assertTrue("Mismatches:\n" + String.join("\n", mismatches), mismatches.isEmpty());
+		assertTrue("Only " + compared + " expressions were compiled", compared > EXPRESSIONS / 4);
+	}
+
+	private RankingList createList() {
+		DataCollection.Builder b = DataCollection.builder(PLAYERS, false);
+		for (int p = 0; p < PLAYERS; p++)
+			b.add(new UUID(0, p + 1), "p" + p, null, Instant.ofEpochMilli(p));
+
+		RankingList list = new RankingList(b.build());
+		for (String name : new String[]{"a_kills", "a_deaths", "b_kills", "x"}) {
+			Ranking r = list.getOrCreate(name);
+			for (int p = 0; p < PLAYERS; p++) {
+				int k = this.random.nextInt(8);
+				if (k != 0)
+					r.put(p, k == 1 ? 0 : k == 2 ? this.random.nextInt(3) : k == 3 ? -this.random.nextInt(5) : this.random.nextDouble() * 100);
+			}
+		}
+		return list;
+	}
+
+	private String generate(int depth) {
+		int k = depth == 0 ? this.random.nextInt(2) : this.random.nextInt(7);
+		switch (k) {
+			case 0:
+				// mXparser never terminates on an unary plus that is not directly followed by a number
+				return (this.random.nextInt(4) == 0 ? "+" : "") + pick(NUMBERS);
+			case 1:
+				return pick(NAMES);
+			case 2:
+			case 3:
+				return generate(depth - 1) + space() + pick(BINARY) + space() + generate(depth - 1);
+			case 4:
+				return pick(UNARY) + space() + generate(depth - 1);
+			case 5:
+				return "(" + generate(depth - 1) + ")";
+			default:
+				String f = pick(FUNCTIONS);
+				StringBuilder sb = new StringBuilder(f).append('(').append(generate(depth - 1));
+				if (!f.equals("abs")) {
+					int n = this.random.nextInt(3);
+					for (int i = 0; i < n; i++)
+						sb.append(',').append(space()).append(generate(depth - 1));
+				}
+				return sb.append(')').toString();
+		}
+	}
+
+	private String pick(String[] values) {
+		return values[this.random.nextInt(values.length)];
+	}
+
+	private String space() {
+		return this.random.nextBoolean() ? " " : "";
+	}
+
+	private static boolean same(double expected, double actual) {
+		if (Double.isNaN(expected) || Double.isNaN(actual))
+			return Double.isNaN(expected) == Double.isNaN(actual);
+		if (expected == actual)
+			return true;
+		return Math.abs(expected - actual) <= 1e-12 * Math.max(Math.abs(expected), Math.abs(actual));
+	}
+}